@@ -0,0 +1,258 @@
+package holoj;
+
+/**
+ * Class HoloJAutofocus searches the propagation distance where a field is in focus.
+ * A focus metric is first evaluated on a coarse grid of distances, using planes computed from
+ * the central part of the spectrum only (see HoloJFocusStack.downsample); the best interval
+ * of the grid is then refined by golden-section search at full resolution.
+ * The forward spectrum of the field is computed once for the whole search.
+ *
+ * @author Brian Mitchell
+ * @version 1.0
+ */
+public final class HoloJAutofocus {
+
+    /** Variance of the amplitude. */
+    public static final int VARIANCE = 0;
+    /** Tamura coefficient, square root of standard deviation over mean of the amplitude. */
+    public static final int TAMURA = 1;
+    /** Sum of the squared finite differences of the amplitude. */
+    public static final int GRADIENT = 2;
+
+    // 1/golden ratio.
+    private static final double GOLDEN = 0.5*(Math.sqrt(5.0)-1.0);
+    // coarse planes are not reduced below this size.
+    private static final int MIN_COARSE_SIZE = 64;
+
+    private final HoloJFocusStack stack;
+    private int metric = TAMURA;
+    private boolean minimize = false;
+    private int downsampling = 4;
+    private double tolerance = 0.0;
+
+   /**
+    * Creates an autofocus for field. The field itself is left untouched.
+    *
+    * @param field      the field to focus, usually a reconstructed hologram.
+    * @param dx         pixel size along X.
+    * @param dy         pixel size along Y.
+    * @param wavelength wavelength of the illumination.
+    */
+    public HoloJAutofocus(HoloJProcessor field, double dx, double dy, double wavelength) {
+        stack = new HoloJFocusStack(field, dx, dy, wavelength);
+    } // Constructor (field, dx, dy, wavelength)
+
+   /**
+    * Searches the focus between start and end.
+    *
+    * @param start      first distance of the coarse grid.
+    * @param end        last distance of the coarse grid.
+    * @param steps      number of distances of the coarse grid.
+    * @return the result of the search.
+    */
+    public Result search(double start, double end, int steps) {
+        if (steps < 2)
+            throw new IllegalArgumentException("search: steps < 2.");
+        double[] distances = HoloJFocusStack.range(start, end, steps);
+        int factor = Math.max(1, Math.min(downsampling,
+                                 Math.min(stack.getWidth(), stack.getHeight())/MIN_COARSE_SIZE));
+        HoloJFocusStack coarse = (factor > 1) ? stack.downsample(factor) : stack;
+        double[] values = coarse.focusCurve(distances, metric);
+        int best = 0;
+        for (int i=1; i<steps; i++)
+            if (better(values[i], values[best])) best = i;
+
+        // golden-section search on the grid intervals around the best coarse distance.
+        double a = distances[Math.max(0, best-1)];
+        double b = distances[Math.min(steps-1, best+1)];
+        double tol = (tolerance > 0) ? tolerance : Math.abs(end-start)/(steps-1)/100.0;
+        double c = b-GOLDEN*(b-a);
+        double d = a+GOLDEN*(b-a);
+        double fc = evaluate(c);
+        double fd = evaluate(d);
+        int evaluations = 2;
+        while (Math.abs(b-a) > tol) {
+            if (better(fc, fd)) {
+                b = d;
+                d = c;
+                fd = fc;
+                c = b-GOLDEN*(b-a);
+                fc = evaluate(c);
+            } else {
+                a = c;
+                c = d;
+                fc = fd;
+                d = a+GOLDEN*(b-a);
+                fd = evaluate(d);
+            }
+            evaluations++;
+        }
+        double distance = better(fc, fd) ? c : d;
+        return new Result(distance, better(fc, fd) ? fc : fd, distances, values, evaluations);
+    }
+
+    // the golden-section distances are probed once: their transfer functions are not cached.
+    private double evaluate(double distance) {
+        return sharpness(stack.propagate(distance, false), metric);
+    }
+
+    private boolean better(double value, double reference) {
+        return minimize ? (value < reference) : (value > reference);
+    }
+
+   /**
+    * Returns a focus metric of the amplitude of field.
+    *
+    * @param field      the field.
+    * @param metric     VARIANCE, TAMURA or GRADIENT.
+    * @return the metric value.
+    */
+    public static double sharpness(HoloJProcessor field, int metric) {
+        int width = field.getWidth();
+        int height = field.getHeight();
+        int size = width*height;
+        double[] amplitude = new double[size];
+        for (int k=0; k<size; k++)
+            amplitude[k] = HoloJUtils.modulus(field.getReal(k), field.getComplex(k));
+        switch (metric) {
+            case VARIANCE:
+            case TAMURA:
+                double sum = 0.0;
+                double sum2 = 0.0;
+                for (int k=0; k<size; k++) {
+                    sum += amplitude[k];
+                    sum2 += amplitude[k]*amplitude[k];
+                }
+                double mean = sum/size;
+                double variance = Math.max(0.0, sum2/size-mean*mean);
+                if (metric == VARIANCE) return variance;
+                return (mean > 0) ? Math.sqrt(Math.sqrt(variance)/mean) : 0.0;
+            case GRADIENT:
+                double energy = 0.0;
+                for (int row=0; row<height; row++) {
+                    int base = row*width;
+                    for (int col=0; col<width; col++) {
+                        double a = amplitude[base+col];
+                        if (col+1 < width) {
+                            double g = amplitude[base+col+1]-a;
+                            energy += g*g;
+                        }
+                        if (row+1 < height) {
+                            double g = amplitude[base+width+col]-a;
+                            energy += g*g;
+                        }
+                    }
+                }
+                return energy;
+            default:
+                throw new IllegalArgumentException("sharpness: unknown metric.");
+        }
+    }
+
+   /**
+    * Sets the focus metric used by the search, TAMURA by default.
+    *
+    * @param metric     VARIANCE, TAMURA or GRADIENT.
+    */
+    public void setMetric(int metric) {
+        if ((metric < VARIANCE) || (metric > GRADIENT))
+            throw new IllegalArgumentException("setMetric: unknown metric.");
+        this.metric = metric;
+    }
+
+   /**
+    * Sets whether the focus is the minimum of the metric, as for pure phase objects,
+    * or its maximum, as for amplitude objects (default).
+    *
+    * @param minimize   true to search the minimum.
+    */
+    public void setMinimize(boolean minimize) {
+        this.minimize = minimize;
+    }
+
+   /**
+    * Sets the size reduction of the coarse planes, 4 by default. Coarse planes are never
+    * reduced below 64 pixels.
+    *
+    * @param factor     reduction factor, 1 to evaluate the coarse grid at full resolution.
+    */
+    public void setDownsampling(int factor) {
+        if (factor < 1)
+            throw new IllegalArgumentException("setDownsampling: factor < 1.");
+        downsampling = factor;
+    }
+
+   /**
+    * Sets the width of the final interval of the golden-section search.
+    * By default it is one hundredth of the coarse grid step.
+    *
+    * @param tolerance  distance tolerance, 0 for the default.
+    */
+    public void setTolerance(double tolerance) {
+        this.tolerance = tolerance;
+    }
+
+   /**
+    * Class Result holds the distance found by a search and the coarse metric curve.
+    */
+    public static final class Result {
+        private final double distance;
+        private final double value;
+        private final double[] distances;
+        private final double[] values;
+        private final int evaluations;
+
+        Result(double distance, double value, double[] distances, double[] values, int evaluations) {
+            this.distance = distance;
+            this.value = value;
+            this.distances = distances;
+            this.values = values;
+            this.evaluations = evaluations;
+        }
+
+       /**
+        *	Returns the distance of best focus.
+        *
+        *	@return the distance.
+        */
+        public double getDistance() {
+            return distance;
+        }
+
+       /**
+        *	Returns the full resolution metric value at the distance of best focus.
+        *
+        *	@return the metric value.
+        */
+        public double getValue() {
+            return value;
+        }
+
+       /**
+        *	Returns the distances of the coarse grid.
+        *
+        *	@return the distances.
+        */
+        public double[] getDistances() {
+            return distances;
+        }
+
+       /**
+        *	Returns the metric values of the coarse grid, computed on reduced planes.
+        *
+        *	@return the metric values.
+        */
+        public double[] getValues() {
+            return values;
+        }
+
+       /**
+        *	Returns the number of full resolution planes computed by the refinement.
+        *
+        *	@return the number of planes.
+        */
+        public int getEvaluations() {
+            return evaluations;
+        }
+    }
+}
@@ -0,0 +1,418 @@
+package holoj;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * Class HoloJBufferPool recycles the double arrays used for pixel data, so that a pipeline
+ * processing frame after frame of the same size stops allocating once the pool is warm.
+ * Arrays are kept by length. An array must be released only by its last user: a released
+ * array is handed to the next borrower of the same length.
+ * The pool never retains more than getCapacity() bytes; arrays released beyond it are left
+ * to the garbage collector. Hits, misses and the peak of retained bytes are counted.
+ * Direct buffers, holding the pixels of off-heap HoloJProcessors, are recycled the same way but
+ * kept apart, under their own capacity: their memory is outside the heap, and the memory of a
+ * buffer left to the garbage collector only returns once its small heap object is collected.
+ * By default the free direct buffers are kept to a quarter of the direct memory limit, so that the
+ * pool alone cannot exhaust it.
+ *
+ * @author Brian Mitchell
+ * @version 1.0
+ */
+public final class HoloJBufferPool {
+
+    // free arrays, by length.
+    private static final HashMap<Integer, ArrayDeque<double[]>> free = new HashMap<Integer, ArrayDeque<double[]>>();
+    private static long capacity = Runtime.getRuntime().maxMemory()/4;
+    private static long retainedBytes = 0;
+    private static long peakRetainedBytes = 0;
+    private static long hits = 0;
+    private static long misses = 0;
+    private static long dropped = 0;
+    // free direct buffers, by length in doubles.
+    private static final HashMap<Integer, ArrayDeque<DoubleBuffer>> freeDirect = new HashMap<Integer, ArrayDeque<DoubleBuffer>>();
+    private static long directCapacity = maxDirectMemory()/4;
+    private static long retainedDirectBytes = 0;
+    // zeros copied into recycled direct buffers.
+    private static final double[] ZEROS = new double[4096];
+
+    private HoloJBufferPool() {
+    }
+
+   /**
+    * Returns a zero filled array of the given length, from the pool if one is free.
+    *
+    * @param length     the array length.
+    * @return the array.
+    */
+    public static double[] borrow(int length) {
+        return borrow(length, true);
+    }
+
+   /**
+    * Returns an array of the given length, from the pool if one is free.
+    *
+    * @param length     the array length.
+    * @param clear      false to skip zero filling a recycled array, when every element will be written.
+    * @return the array.
+    */
+    public static double[] borrow(int length, boolean clear) {
+        if (length < 0)
+            throw new IllegalArgumentException("borrow: length < 0.");
+        double[] array = take(length);
+        if (array == null) return new double[length];
+        if (clear) Arrays.fill(array, 0.0);
+        return array;
+    }
+
+    private static synchronized double[] take(int length) {
+        ArrayDeque<double[]> arrays = free.get(length);
+        if ((arrays == null) || arrays.isEmpty()) {
+            misses++;
+            return null;
+        }
+        hits++;
+        retainedBytes -= bytes(length);
+        return arrays.pop();
+    }
+
+   /**
+    * Gives back an array no longer used. Null arrays are ignored.
+    *
+    * @param array      the array, which must not be used after the call.
+    */
+    public static synchronized void release(double[] array) {
+        if ((array == null) || (array.length == 0)) return;
+        long size = bytes(array.length);
+        if (retainedBytes+size > capacity) {
+            dropped++;
+            return;
+        }
+        ArrayDeque<double[]> arrays = free.get(array.length);
+        if (arrays == null) {
+            arrays = new ArrayDeque<double[]>();
+            free.put(array.length, arrays);
+        }
+        // an array released twice would be handed to two borrowers.
+        for (Iterator<double[]> it = arrays.iterator(); it.hasNext(); )
+            if (it.next() == array)
+                throw new IllegalArgumentException("release: array is already in the pool.");
+        arrays.push(array);
+        retainedBytes += size;
+        if (retainedBytes > peakRetainedBytes) peakRetainedBytes = retainedBytes;
+    }
+
+   /**
+    * Returns a direct buffer of the given length in doubles, in native byte order, from the pool
+    * if one is free. The buffer must be accessed by absolute index only, and its position and limit
+    * left alone, since its users may share it between threads.
+    *
+    * @param length     the buffer length, in doubles.
+    * @param clear      false to skip zero filling a recycled buffer, when every element will be written.
+    * @return the buffer.
+    */
+    public static DoubleBuffer borrowDirect(int length, boolean clear) {
+        if ((length < 0) || (length > Integer.MAX_VALUE >> 3))
+            throw new IllegalArgumentException("borrowDirect: length must be between 0 and 2^28-1.");
+        DoubleBuffer buffer = takeDirect(length);
+        if (buffer == null)
+            return ByteBuffer.allocateDirect(length << 3).order(ByteOrder.nativeOrder()).asDoubleBuffer();
+        if (clear)
+            for (int i=0; i<length; i+=ZEROS.length)
+                put(buffer, i, ZEROS, 0, Math.min(ZEROS.length, length-i));
+        return buffer;
+    }
+
+    private static synchronized DoubleBuffer takeDirect(int length) {
+        ArrayDeque<DoubleBuffer> buffers = freeDirect.get(length);
+        if ((buffers == null) || buffers.isEmpty()) {
+            misses++;
+            return null;
+        }
+        hits++;
+        retainedDirectBytes -= bytes(length);
+        return buffers.pop();
+    }
+
+   /**
+    * Gives back a direct buffer no longer used. Null buffers are ignored.
+    *
+    * @param buffer     the buffer, which must not be used after the call.
+    */
+    public static synchronized void release(DoubleBuffer buffer) {
+        if ((buffer == null) || (buffer.capacity() == 0)) return;
+        if (!buffer.isDirect())
+            throw new IllegalArgumentException("release: buffer is not direct.");
+        long size = bytes(buffer.capacity());
+        if (retainedDirectBytes+size > directCapacity) {
+            dropped++;
+            return;
+        }
+        ArrayDeque<DoubleBuffer> buffers = freeDirect.get(buffer.capacity());
+        if (buffers == null) {
+            buffers = new ArrayDeque<DoubleBuffer>();
+            freeDirect.put(buffer.capacity(), buffers);
+        }
+        for (Iterator<DoubleBuffer> it = buffers.iterator(); it.hasNext(); )
+            if (it.next() == buffer)
+                throw new IllegalArgumentException("release: buffer is already in the pool.");
+        buffers.push(buffer);
+        retainedDirectBytes += size;
+    }
+
+   /**
+    * Copies length doubles of buffer, from index on, into dst. The position of buffer is not changed.
+    *
+    * @param buffer     the source buffer.
+    * @param index      index of the first double to copy.
+    * @param dst        the destination array.
+    * @param offset     index in dst of the first double.
+    * @param length     number of doubles.
+    */
+    public static void get(DoubleBuffer buffer, int index, double[] dst, int offset, int length) {
+        DoubleBuffer view = buffer.duplicate();
+        view.position(index);
+        view.get(dst, offset, length);
+    }
+
+   /**
+    * Copies length doubles of src into buffer, from index on. The position of buffer is not changed.
+    *
+    * @param buffer     the destination buffer.
+    * @param index      index of the first double written.
+    * @param src        the source array.
+    * @param offset     index in src of the first double.
+    * @param length     number of doubles.
+    */
+    public static void put(DoubleBuffer buffer, int index, double[] src, int offset, int length) {
+        DoubleBuffer view = buffer.duplicate();
+        view.position(index);
+        view.put(src, offset, length);
+    }
+
+   /**
+    * Returns a zero filled array wrapped in a handle that releases it when closed,
+    * for use in a try-with-resources statement.
+    *
+    * @param length     the array length.
+    * @return the lease.
+    */
+    public static Lease lease(int length) {
+        return new Lease(borrow(length, true));
+    }
+
+   /**
+    * Returns an array wrapped in a handle that releases it when closed.
+    *
+    * @param length     the array length.
+    * @param clear      false to skip zero filling a recycled array.
+    * @return the lease.
+    */
+    public static Lease lease(int length, boolean clear) {
+        return new Lease(borrow(length, clear));
+    }
+
+    // limit of direct memory: -XX:MaxDirectMemorySize if given, else the maximum heap size as in the JVM.
+    private static long maxDirectMemory() {
+        long max = Runtime.getRuntime().maxMemory();
+        try {
+            for (String arg : java.lang.management.ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+                if (!arg.startsWith("-XX:MaxDirectMemorySize=")) continue;
+                String value = arg.substring(arg.indexOf('=')+1).toLowerCase();
+                int shift = 0;
+                char unit = value.isEmpty() ? ' ' : value.charAt(value.length()-1);
+                if (unit == 'k') shift = 10;
+                else if (unit == 'm') shift = 20;
+                else if (unit == 'g') shift = 30;
+                else if (unit == 't') shift = 40;
+                if (shift != 0) value = value.substring(0, value.length()-1);
+                long size = Long.parseLong(value) << shift;
+                if (size > 0) max = size;
+            }
+        } catch (RuntimeException e) {
+            // no management support or an unreadable value: keep the heap size.
+        } catch (LinkageError e) {
+            // java.management is not in the runtime image.
+        }
+        return max;
+    }
+
+    private static long bytes(int length) {
+        return (long)length << 3;
+    }
+
+   /**
+    * Sets the largest number of bytes retained by the pool, dropping free arrays beyond it.
+    *
+    * @param bytes      the capacity, in bytes.
+    */
+    public static synchronized void setCapacity(long bytes) {
+        if (bytes < 0)
+            throw new IllegalArgumentException("setCapacity: bytes < 0.");
+        capacity = bytes;
+        for (Iterator<ArrayDeque<double[]>> it = free.values().iterator(); it.hasNext() && (retainedBytes > capacity); ) {
+            ArrayDeque<double[]> arrays = it.next();
+            while (!arrays.isEmpty() && (retainedBytes > capacity)) {
+                retainedBytes -= bytes(arrays.pop().length);
+                dropped++;
+            }
+            if (arrays.isEmpty()) it.remove();
+        }
+    }
+
+   /**
+    *	Returns the largest number of bytes retained by the pool.
+    *
+    *	@return the capacity, in bytes.
+    */
+    public static synchronized long getCapacity() {
+        return capacity;
+    }
+
+   /**
+    * Sets the largest number of bytes retained in free direct buffers, dropping free buffers beyond it.
+    *
+    * @param bytes      the capacity, in bytes.
+    */
+    public static synchronized void setDirectCapacity(long bytes) {
+        if (bytes < 0)
+            throw new IllegalArgumentException("setDirectCapacity: bytes < 0.");
+        directCapacity = bytes;
+        for (Iterator<ArrayDeque<DoubleBuffer>> it = freeDirect.values().iterator(); it.hasNext() && (retainedDirectBytes > directCapacity); ) {
+            ArrayDeque<DoubleBuffer> buffers = it.next();
+            while (!buffers.isEmpty() && (retainedDirectBytes > directCapacity)) {
+                retainedDirectBytes -= bytes(buffers.pop().capacity());
+                dropped++;
+            }
+            if (buffers.isEmpty()) it.remove();
+        }
+    }
+
+   /**
+    *	Returns the largest number of bytes retained in free direct buffers, a quarter of the direct memory limit by default.
+    *
+    *	@return the capacity, in bytes.
+    */
+    public static synchronized long getDirectCapacity() {
+        return directCapacity;
+    }
+
+   /**
+    * Drops all free arrays and direct buffers. Statistics are kept.
+    */
+    public static synchronized void clear() {
+        free.clear();
+        retainedBytes = 0;
+        freeDirect.clear();
+        retainedDirectBytes = 0;
+    }
+
+   /**
+    * Resets hits, misses, dropped arrays and the peak of retained bytes.
+    */
+    public static synchronized void resetStatistics() {
+        hits = 0;
+        misses = 0;
+        dropped = 0;
+        peakRetainedBytes = retainedBytes;
+    }
+
+   /**
+    *	Returns the fraction of borrowed arrays and buffers that came from the pool.
+    *
+    *	@return the hit rate, 0 before the first borrow.
+    */
+    public static synchronized double getHitRate() {
+        return (hits+misses == 0) ? 0.0 : (double)hits/(hits+misses);
+    }
+
+   /**
+    *	Returns the number of borrowed arrays and buffers that came from the pool.
+    *
+    *	@return the number of hits.
+    */
+    public static synchronized long getHits() {
+        return hits;
+    }
+
+   /**
+    *	Returns the number of borrowed arrays and buffers that were allocated.
+    *
+    *	@return the number of misses.
+    */
+    public static synchronized long getMisses() {
+        return misses;
+    }
+
+   /**
+    *	Returns the number of released arrays and buffers left to the garbage collector because of the capacity.
+    *
+    *	@return the number of dropped arrays.
+    */
+    public static synchronized long getDropped() {
+        return dropped;
+    }
+
+   /**
+    *	Returns the bytes of the free arrays now retained.
+    *
+    *	@return the retained bytes.
+    */
+    public static synchronized long getRetainedBytes() {
+        return retainedBytes;
+    }
+
+   /**
+    *	Returns the bytes of the free direct buffers now retained, outside the heap.
+    *
+    *	@return the retained bytes.
+    */
+    public static synchronized long getRetainedDirectBytes() {
+        return retainedDirectBytes;
+    }
+
+   /**
+    *	Returns the largest number of bytes retained at once.
+    *
+    *	@return the peak of retained bytes.
+    */
+    public static synchronized long getPeakRetainedBytes() {
+        return peakRetainedBytes;
+    }
+
+   /**
+    * A borrowed array, released to the pool by close().
+    */
+    public static final class Lease implements AutoCloseable {
+        private double[] array;
+
+        private Lease(double[] array) {
+            this.array = array;
+        }
+
+       /**
+        *	Returns the borrowed array.
+        *
+        *	@return the array.
+        */
+        public double[] get() {
+            if (array == null)
+                throw new IllegalStateException("get: lease is closed.");
+            return array;
+        }
+
+       /**
+        * Releases the array to the pool. Further calls do nothing.
+        */
+        public void close() {
+            double[] a = array;
+            array = null;
+            release(a);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package holoj;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Class HoloJChirpCache keeps the most recently used propagation transfer functions, Fresnel chirps
+ * or angular spectrum kernels, so that refocusing sweeps with the same geometry do not rebuild them
+ * on every propagation. HoloJUtils.transferFunction, and so propogatefunc, HoloJFocusStack and
+ * HoloJStackProcessor, take their transfer functions from here.
+ * The cache is bounded in bytes, as counted by HoloJTransfer.getMemorySize(), and evicts the least
+ * recently used transfer functions: a Fresnel chirp holds width+height phases, an angular spectrum kernel
+ * a quarter of the image, 64 MB at 4096x4096. Hits and misses are counted to help choosing its capacity.
+ * Transfer functions used once, such as the probes of an autofocus search, can be built without being kept.
+ *
+ * The returned transfer functions are shared: they are only read when applied, so threads may use them at once.
+ *
+ * @author Brian Mitchell
+ * @version 1.0
+ */
+public final class HoloJChirpCache {
+
+    private static long capacity = Runtime.getRuntime().maxMemory()/16;
+    private static long retainedBytes = 0;
+    private static long hits = 0;
+    private static long misses = 0;
+
+    private static final LinkedHashMap<String, HoloJTransfer> transfers = new LinkedHashMap<String, HoloJTransfer>(16, 0.75f, true);
+
+    private HoloJChirpCache() {
+    }
+
+   /**
+    * Returns the transfer function of a propagation by distance with the selected method, from the cache if possible.
+    *
+    * @param width      image width.
+    * @param height     image height.
+    * @param dx         pixel size along X.
+    * @param dy         pixel size along Y.
+    * @param distance   propagation distance.
+    * @param wavelength wavelength of the illumination.
+    * @param method     HoloJUtils.FRESNEL or HoloJUtils.ANGULAR_SPECTRUM.
+    * @return the shared transfer function.
+    */
+    public static HoloJTransfer getTransfer(int width, int height, double dx, double dy, double distance,
+                                            double wavelength, int method) {
+        return getTransfer(width, height, dx, dy, distance, wavelength, method, true);
+    }
+
+   /**
+    * Returns the transfer function of a propagation by distance with the selected method, from the cache if possible.
+    * A transfer function built because it was not in the cache is kept only if keep is true.
+    *
+    * @param width      image width.
+    * @param height     image height.
+    * @param dx         pixel size along X.
+    * @param dy         pixel size along Y.
+    * @param distance   propagation distance.
+    * @param wavelength wavelength of the illumination.
+    * @param method     HoloJUtils.FRESNEL or HoloJUtils.ANGULAR_SPECTRUM.
+    * @param keep       false for a distance used once, which must not evict the transfer functions in use.
+    * @return the transfer function, shared if it comes from the cache.
+    */
+    public static synchronized HoloJTransfer getTransfer(int width, int height, double dx, double dy, double distance,
+                                                         double wavelength, int method, boolean keep) {
+        if ((method != HoloJUtils.FRESNEL) && (method != HoloJUtils.ANGULAR_SPECTRUM))
+            throw new IllegalArgumentException("getTransfer: unknown propagation method.");
+        String key = method+":"+width+"x"+height+":"+Double.doubleToLongBits(dx)+":"+Double.doubleToLongBits(dy)+":"
+                     +Double.doubleToLongBits(distance)+":"+Double.doubleToLongBits(wavelength);
+        HoloJTransfer transfer = transfers.get(key);
+        if (transfer != null) {
+            hits++;
+            return transfer;
+        }
+        misses++;
+        if (method == HoloJUtils.FRESNEL)
+            transfer = new HoloJTransferFunction(width, height, dx, dy, distance, wavelength);
+        else
+            transfer = new HoloJAngularSpectrum(width, height, dx, dy, distance, wavelength);
+        long size = transfer.getMemorySize();
+        if (keep && (size <= capacity)) {
+            transfers.put(key, transfer);
+            retainedBytes += size;
+            evict();
+        }
+        return transfer;
+    }
+
+    // removes the least recently used transfer functions until the retained bytes fit in the capacity.
+    private static void evict() {
+        for (Iterator<HoloJTransfer> it = transfers.values().iterator(); it.hasNext() && (retainedBytes > capacity); ) {
+            retainedBytes -= it.next().getMemorySize();
+            it.remove();
+        }
+    }
+
+   /**
+    * Sets the largest number of bytes held by the cached transfer functions, evicting the least recently used ones if needed.
+    *
+    * @param bytes      the capacity, in bytes, 0 disables the cache.
+    */
+    public static synchronized void setCapacity(long bytes) {
+        if (bytes < 0)
+            throw new IllegalArgumentException("setCapacity: bytes < 0.");
+        capacity = bytes;
+        evict();
+    }
+
+   /**
+    * Returns the largest number of bytes held by the cached transfer functions, a sixteenth of the heap by default.
+    *
+    * @return the capacity, in bytes.
+    */
+    public static synchronized long getCapacity() {
+        return capacity;
+    }
+
+   /**
+    * Returns the number of bytes held by the cached transfer functions.
+    *
+    * @return the retained bytes.
+    */
+    public static synchronized long getRetainedBytes() {
+        return retainedBytes;
+    }
+
+   /**
+    * Returns the number of requests served from the cache.
+    *
+    * @return the hit count.
+    */
+    public static synchronized long getHits() {
+        return hits;
+    }
+
+   /**
+    * Returns the number of requests that had to build a new transfer function.
+    *
+    * @return the miss count.
+    */
+    public static synchronized long getMisses() {
+        return misses;
+    }
+
+   /**
+    * Resets hit and miss counters.
+    */
+    public static synchronized void resetCounters() {
+        hits = 0;
+        misses = 0;
+    }
+
+   /**
+    * Removes all transfer functions from the cache.
+    */
+    public static synchronized void clear() {
+        transfers.clear();
+        retainedBytes = 0;
+    }
+}
@@ -0,0 +1,346 @@
+package holoj;
+
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Class HoloJExpression is a lazy chain of complex pixel operations on HoloJProcessor images,
+ * such as of(a).multiply(b).divide(c).addPhase(angle). Building the chain does no work; evaluate()
+ * computes it in a single pass over memory, instead of one pass per operation. Images are processed
+ * in tiles of TILE pixels: all operations of a tile are applied while it sits in small buffers, so
+ * each source pixel is read once and each result pixel written once. Tiles are evaluated in parallel
+ * on the pool of HoloJFFTPlan.
+ * Operations give the same results as the HoloJProcessor methods of the same name.
+ *
+ * @author Brian Mitchell
+ * @version 1.0
+ */
+public final class HoloJExpression {
+
+    // pixels per tile: the buffers of a tile stay in the first level cache.
+    private static final int TILE = 1024;
+
+    private static final int LEAF = 0;
+    private static final int ADD = 1;
+    private static final int SUBTRACT = 2;
+    private static final int MULTIPLY = 3;
+    private static final int DIVIDE = 4;
+    private static final int ADD_PHASE = 5;
+    private static final int ADD_PHASE_PLATE = 6;
+
+    private final int operation;
+    private final int width;
+    private final int height;
+    private final HoloJProcessor source;
+    private final HoloJExpression left;
+    private final HoloJExpression right;
+    private final double realAdd;
+    private final double complexAdd;
+    private final double[] plate;
+    // scratch buffer pairs needed to evaluate the right operands of the chain.
+    private final int depth;
+
+    private HoloJExpression(int operation, HoloJProcessor source, HoloJExpression left, HoloJExpression right,
+                            double angle, double[] plate) {
+        this.operation = operation;
+        this.source = source;
+        this.left = left;
+        this.right = right;
+        this.realAdd = Math.cos(angle);
+        this.complexAdd = Math.sin(angle);
+        this.plate = plate;
+        if (source != null) {
+            width = source.getWidth();
+            height = source.getHeight();
+        } else {
+            width = left.width;
+            height = left.height;
+        }
+        if (operation == LEAF) depth = 0;
+        else if (right == null) depth = left.depth;
+        else depth = Math.max(left.depth, right.depth+1);
+    }
+
+   /**
+    * Returns the expression made of image alone. The image is read at evaluation time, not copied.
+    *
+    * @param image      the HoloJProcessor operand.
+    * @return the expression.
+    */
+    public static HoloJExpression of(HoloJProcessor image) {
+        if (image == null)
+            throw new ArrayStoreException("of: image == null.");
+        return new HoloJExpression(LEAF, image, null, null, 0.0, null);
+    }
+
+   /**
+    * Returns this expression plus operand.
+    *
+    * @param operand    the HoloJProcessor operand, of the same size.
+    * @return the new expression.
+    */
+    public HoloJExpression add(HoloJProcessor operand) {
+        return binary(ADD, of(operand), "add");
+    }
+
+   /**
+    * Returns this expression plus operand.
+    *
+    * @param operand    the expression operand, of the same size.
+    * @return the new expression.
+    */
+    public HoloJExpression add(HoloJExpression operand) {
+        return binary(ADD, operand, "add");
+    }
+
+   /**
+    * Returns this expression minus operand.
+    *
+    * @param operand    the HoloJProcessor operand, of the same size.
+    * @return the new expression.
+    */
+    public HoloJExpression subtract(HoloJProcessor operand) {
+        return binary(SUBTRACT, of(operand), "subtract");
+    }
+
+   /**
+    * Returns this expression minus operand.
+    *
+    * @param operand    the expression operand, of the same size.
+    * @return the new expression.
+    */
+    public HoloJExpression subtract(HoloJExpression operand) {
+        return binary(SUBTRACT, operand, "subtract");
+    }
+
+   /**
+    * Returns the complex product of this expression by operand.
+    *
+    * @param operand    the HoloJProcessor operand, of the same size.
+    * @return the new expression.
+    */
+    public HoloJExpression multiply(HoloJProcessor operand) {
+        return binary(MULTIPLY, of(operand), "multiply");
+    }
+
+   /**
+    * Returns the complex product of this expression by operand.
+    *
+    * @param operand    the expression operand, of the same size.
+    * @return the new expression.
+    */
+    public HoloJExpression multiply(HoloJExpression operand) {
+        return binary(MULTIPLY, operand, "multiply");
+    }
+
+   /**
+    * Returns the complex quotient of this expression by operand.
+    *
+    * @param operand    the HoloJProcessor operand, of the same size.
+    * @return the new expression.
+    */
+    public HoloJExpression divide(HoloJProcessor operand) {
+        return binary(DIVIDE, of(operand), "divide");
+    }
+
+   /**
+    * Returns the complex quotient of this expression by operand.
+    *
+    * @param operand    the expression operand, of the same size.
+    * @return the new expression.
+    */
+    public HoloJExpression divide(HoloJExpression operand) {
+        return binary(DIVIDE, operand, "divide");
+    }
+
+   /**
+    * Returns this expression with (cos(angle), sin(angle)) added to each pixel, as HoloJProcessor.addPhase does.
+    *
+    * @param angle      radians to add.
+    * @return the new expression.
+    */
+    public HoloJExpression addPhase(double angle) {
+        return new HoloJExpression(ADD_PHASE, null, this, null, angle, null);
+    }
+
+   /**
+    * Returns this expression with the phase plate added, as HoloJProcessor.addPhasePlate does.
+    * The array is read at evaluation time, not copied.
+    *
+    * @param plateArray the array of radians to add, one per pixel.
+    * @return the new expression.
+    */
+    public HoloJExpression addPhasePlate(double[] plateArray) {
+        if (plateArray.length != width*height)
+            throw new IndexOutOfBoundsException("addPhasePlate: size of the phase-plate must be the same of the expression.");
+        return new HoloJExpression(ADD_PHASE_PLATE, null, this, null, 0.0, plateArray);
+    }
+
+    private HoloJExpression binary(int op, HoloJExpression operand, String name) {
+        if ((operand.width != width) || (operand.height != height))
+            throw new IndexOutOfBoundsException(name+": sizes must be equal.");
+        return new HoloJExpression(op, null, this, operand, 0.0, null);
+    }
+
+   /**
+    * Evaluates the expression into a new complex HoloJProcessor, with interleaved storage.
+    *
+    * @return the result.
+    */
+    public HoloJProcessor evaluate() {
+        return evaluateInto(new HoloJProcessor(width, height, new double[width*height << 1]));
+    }
+
+   /**
+    * Evaluates the expression into dest, keeping its storage. Dest may be one of the images
+    * of the expression: each tile is fully read before it is written.
+    *
+    * @param dest       the HoloJProcessor receiving the result, of the same size.
+    * @return dest.
+    */
+    public HoloJProcessor evaluateInto(HoloJProcessor dest) {
+        if ((dest.getWidth() != width) || (dest.getHeight() != height))
+            throw new IndexOutOfBoundsException("evaluateInto: sizes must be equal.");
+        if (!dest.isInterleaved() && !dest.isOffHeap() && (dest.complexStorage() == null))
+            dest.setComplexStorage(HoloJBufferPool.borrow(width*height, false));
+        int tiles = (width*height+TILE-1)/TILE;
+        ForkJoinPool pool = HoloJFFTPlan.getPool();
+        if (pool == null) {
+            new TileTask(dest, 0, tiles, tiles).compute();
+        } else {
+            int grain = Math.max(1, tiles/(pool.getParallelism() << 2));
+            pool.invoke(new TileTask(dest, 0, tiles, grain));
+        }
+        dest.setComplexOrigin();
+        return dest;
+    }
+
+    // computes count pixels from index from into re and im, using the scratch pairs from level up.
+    private void evaluate(int from, int count, double[] re, double[] im, double[][] scratch, int level) {
+        switch (operation) {
+            case LEAF:
+                load(source, from, count, re, im);
+                return;
+            case ADD_PHASE:
+                left.evaluate(from, count, re, im, scratch, level);
+                HoloJKernels.get().addConstant(re, im, realAdd, complexAdd, count);
+                return;
+            case ADD_PHASE_PLATE:
+                left.evaluate(from, count, re, im, scratch, level);
+                for (int i=0; i<count; i++) {
+                    re[i] += Math.cos(plate[from+i]);
+                    im[i] += Math.sin(plate[from+i]);
+                }
+                return;
+            default:
+                break;
+        }
+        left.evaluate(from, count, re, im, scratch, level);
+        double[] re2 = scratch[level << 1];
+        double[] im2 = scratch[(level << 1)+1];
+        right.evaluate(from, count, re2, im2, scratch, level+1);
+        HoloJKernels kernels = HoloJKernels.get();
+        switch (operation) {
+            case ADD: kernels.add(re, im, re2, im2, re, im, count); break;
+            case SUBTRACT: kernels.subtract(re, im, re2, im2, re, im, count); break;
+            case MULTIPLY: kernels.multiply(re, im, re2, im2, re, im, count); break;
+            default: kernels.divide(re, im, re2, im2, re, im, count);
+        }
+    }
+
+    private static void load(HoloJProcessor image, int from, int count, double[] re, double[] im) {
+        if (image.isOffHeap()) {
+            DoubleBuffer pixels = image.bufferStorage();
+            for (int i=0, pos=from << 1; i<count; i++, pos+=2) {
+                re[i] = pixels.get(pos);
+                im[i] = pixels.get(pos+1);
+            }
+        } else if (image.isInterleaved()) {
+            double[] pixels = image.interleavedStorage();
+            for (int i=0, pos=from << 1; i<count; i++, pos+=2) {
+                re[i] = pixels[pos];
+                im[i] = pixels[pos+1];
+            }
+        } else {
+            System.arraycopy(image.realStorage(), from, re, 0, count);
+            double[] complex = image.complexStorage();
+            if (complex != null) System.arraycopy(complex, from, im, 0, count);
+            else Arrays.fill(im, 0, count, 0.0);
+        }
+    }
+
+    private static void store(HoloJProcessor image, int from, int count, double[] re, double[] im) {
+        if (image.isOffHeap()) {
+            DoubleBuffer pixels = image.bufferStorage();
+            for (int i=0, pos=from << 1; i<count; i++, pos+=2) {
+                pixels.put(pos, re[i]);
+                pixels.put(pos+1, im[i]);
+            }
+        } else if (image.isInterleaved()) {
+            double[] pixels = image.interleavedStorage();
+            for (int i=0, pos=from << 1; i<count; i++, pos+=2) {
+                pixels[pos] = re[i];
+                pixels[pos+1] = im[i];
+            }
+        } else {
+            System.arraycopy(re, 0, image.realStorage(), from, count);
+            System.arraycopy(im, 0, image.complexStorage(), from, count);
+        }
+    }
+
+   /**
+    *	Returns the width of the expression.
+    *
+    *	@return the width.
+    */
+    public int getWidth() {
+        return width;
+    }
+
+   /**
+    *	Returns the height of the expression.
+    *
+    *	@return the height.
+    */
+    public int getHeight() {
+        return height;
+    }
+
+   /**
+    * Evaluates the tiles in [from, to), each task with its own buffers.
+    */
+    private final class TileTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final HoloJProcessor dest;
+        private final int from;
+        private final int to;
+        private final int grain;
+
+        TileTask(HoloJProcessor dest, int from, int to, int grain) {
+            this.dest = dest;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        protected void compute() {
+            if (to-from > grain) {
+                int middle = (from+to) >>> 1;
+                invokeAll(new TileTask(dest, from, middle, grain), new TileTask(dest, middle, to, grain));
+                return;
+            }
+            int size = width*height;
+            double[] re = new double[TILE];
+            double[] im = new double[TILE];
+            double[][] scratch = new double[depth << 1][TILE];
+            for (int tile=from; tile<to; tile++) {
+                int start = tile*TILE;
+                int count = Math.min(TILE, size-start);
+                evaluate(start, count, re, im, scratch, 0);
+                store(dest, start, count, re, im);
+            }
+        }
+    }
+}
@@ -0,0 +1,441 @@
+package holoj;
+
+/**
+ * Class HoloJFFT contains a mixed-radix complex Fast Fourier Transform engine for data of any size.
+ * Lengths are factorized in radix 4, 2 and 3 butterflies; 5, 7 and the other primes up to MAX_ODD_RADIX
+ * use a generic odd-length butterfly and lengths with a larger prime factor use the Bluestein algorithm.
+ * The conventions (sign, normalization and centered spectrum) are the same of HoloJUtils.c2cfft.
+ *
+ * @author Brian Mitchell
+ * @version 1.0
+ */
+public final class HoloJFFT {
+
+    // largest prime handled by the generic odd butterfly before switching to Bluestein.
+    private static final int MAX_ODD_RADIX = 31;
+
+    private HoloJFFT() {
+    }
+
+   /**
+    * Computes the 2D Fast Fourier Transform of data passed as argument.
+    * Data is in row-major mode and RE1,CO1,RE2,CO2... sequence, as used by HoloJUtils.c2cfft.
+    * The forward transform returns a centered spectrum and both directions are scaled by 1/width.
+    *
+    * @param data       data to be transformed.
+    * @param width      length of a row.
+    * @param height     number of rows.
+    * @param isign      forward (1) or reverse (-1) direction.
+    */
+    public static void transform(double[] data, int width, int height, int isign) {
+        HoloJFFTPlan.getPlan(width, height, isign).transform(data);
+    }
+
+   /**
+    * Returns true if all prime factors of n are handled by butterflies, without the Bluestein fallback.
+    *
+    * @param n      the transform length.
+    * @return true if n is a smooth length.
+    */
+    public static boolean isSmoothLength(int n) {
+        return largestPrimeFactor(n) <= MAX_ODD_RADIX;
+    }
+
+    private static int largestPrimeFactor(int n) {
+        int largest = 1;
+        for (int p=2; p*p<=n; p++) {
+            while (n % p == 0) {
+                largest = p;
+                n /= p;
+            }
+        }
+        return (n > 1) ? Math.max(largest, n) : largest;
+    }
+
+   /**
+    * One dimensional transform of a given length and direction.
+    * Input is loaded in digit-reversed order by load() and transformed in place by compute().
+    */
+    static final class Line {
+        final int n;
+        final int isign;
+        private final int[] factors;
+        private final int[] perm;
+        private final double[] twiddles;
+        // cos and signed sin of 2*PI*q/p for the stages using the generic odd butterfly.
+        private final double[][] oddCos;
+        private final double[][] oddSin;
+        // Bluestein convolution data, null for smooth lengths.
+        private final Line forwardConv;
+        private final Line inverseConv;
+        private final double[] chirp;
+        private final double[] kernel;
+
+        Line(int n, int isign) {
+            if (n < 1)
+                throw new ArrayStoreException("Line: length < 1.");
+            this.n = n;
+            this.isign = isign;
+            if (isSmoothLength(n)) {
+                factors = factorize(n);
+                perm = digitReversal(n, factors);
+                twiddles = new double[n << 1];
+                for (int t=0; t<n; t++) {
+                    double angle = 2*Math.PI*t/n;
+                    twiddles[2*t] = Math.cos(angle);
+                    twiddles[2*t+1] = isign*Math.sin(angle);
+                }
+                oddCos = new double[factors.length][];
+                oddSin = new double[factors.length][];
+                for (int s=0; s<factors.length; s++) {
+                    int p = factors[s];
+                    if (p < 5) continue;
+                    oddCos[s] = new double[p];
+                    oddSin[s] = new double[p];
+                    for (int q=0; q<p; q++) {
+                        oddCos[s][q] = Math.cos(2*Math.PI*q/p);
+                        oddSin[s][q] = isign*Math.sin(2*Math.PI*q/p);
+                    }
+                }
+                forwardConv = null;
+                inverseConv = null;
+                chirp = null;
+                kernel = null;
+            } else {
+                factors = null;
+                perm = null;
+                twiddles = null;
+                oddCos = null;
+                oddSin = null;
+                int m = Integer.highestOneBit((n << 1) - 1);
+                if (m < (n << 1) - 1) m <<= 1;
+                forwardConv = new Line(m, 1);
+                inverseConv = new Line(m, -1);
+                // chirp c_j = exp(isign*i*PI*j^2/n), with j^2 reduced modulo 2n to keep precision.
+                chirp = new double[n << 1];
+                long twoN = 2L*n;
+                for (int j=0; j<n; j++) {
+                    double angle = Math.PI*(((long)j*j) % twoN)/n;
+                    chirp[2*j] = Math.cos(angle);
+                    chirp[2*j+1] = isign*Math.sin(angle);
+                }
+                // kernel is the transform of the conjugate chirp wrapped on m points.
+                double[] wrapped = new double[m << 1];
+                for (int j=0; j<n; j++) {
+                    wrapped[2*j] = chirp[2*j];
+                    wrapped[2*j+1] = -chirp[2*j+1];
+                    if (j > 0) {
+                        wrapped[2*(m-j)] = chirp[2*j];
+                        wrapped[2*(m-j)+1] = -chirp[2*j+1];
+                    }
+                }
+                kernel = new double[m << 1];
+                forwardConv.load(wrapped, 0, 1, kernel);
+                forwardConv.compute(kernel, null);
+            }
+        }
+
+       /**
+        * Creates the scratch arrays needed by compute(), or null if none is needed.
+        * Each thread running compute() must use its own scratch.
+        */
+        double[][] createScratch() {
+            if (forwardConv == null) return null;
+            return new double[2][forwardConv.n << 1];
+        }
+
+       /**
+        * Copies n complex values from src into buffer, in the order expected by compute().
+        *
+        * @param src        interleaved source array.
+        * @param offset     index of the real part of the first element.
+        * @param stride     distance between elements, in complex units.
+        * @param buffer     destination of length 2n at least.
+        */
+        void load(double[] src, int offset, int stride, double[] buffer) {
+            load(src, offset, stride, 0, buffer);
+        }
+
+       /**
+        * Copies n complex values from src into buffer, element j being read at index (j+shift) modulo n.
+        * A shift of n/2 undoes the centering of a spectrum while it is loaded.
+        *
+        * @param src        interleaved source array.
+        * @param offset     index of the real part of the element at index 0.
+        * @param stride     distance between elements, in complex units.
+        * @param shift      index of the element loaded first, in [0, n).
+        * @param buffer     destination of length 2n at least.
+        */
+        void load(double[] src, int offset, int stride, int shift, double[] buffer) {
+            int step = stride << 1;
+            if (perm == null) {
+                int pos = offset + shift*step;
+                for (int i=0, j=shift; i<n; i++, pos+=step) {
+                    buffer[2*i] = src[pos];
+                    buffer[2*i+1] = src[pos+1];
+                    if (++j == n) {
+                        j = 0;
+                        pos = offset-step;
+                    }
+                }
+            } else {
+                for (int i=0; i<n; i++) {
+                    int j = perm[i]+shift;
+                    if (j >= n) j -= n;
+                    int pos = offset + j*step;
+                    buffer[2*i] = src[pos];
+                    buffer[2*i+1] = src[pos+1];
+                }
+            }
+        }
+
+       /**
+        * Copies n single precision complex values from src into buffer, element j being read at
+        * index (j+shift) modulo n, in the order expected by compute().
+        */
+        void load(float[] src, int offset, int stride, int shift, double[] buffer) {
+            int step = stride << 1;
+            if (perm == null) {
+                int pos = offset + shift*step;
+                for (int i=0, j=shift; i<n; i++, pos+=step) {
+                    buffer[2*i] = src[pos];
+                    buffer[2*i+1] = src[pos+1];
+                    if (++j == n) {
+                        j = 0;
+                        pos = offset-step;
+                    }
+                }
+            } else {
+                for (int i=0; i<n; i++) {
+                    int j = perm[i]+shift;
+                    if (j >= n) j -= n;
+                    int pos = offset + j*step;
+                    buffer[2*i] = src[pos];
+                    buffer[2*i+1] = src[pos+1];
+                }
+            }
+        }
+
+       /**
+        * Transforms in place the buffer filled by load(). The result is in natural order and not normalized.
+        */
+        void compute(double[] x, double[][] scratch) {
+            if (forwardConv != null) {
+                bluestein(x, scratch);
+                return;
+            }
+            int m = 1;
+            for (int s=0; s<factors.length; s++) {
+                int p = factors[s];
+                int span = m*p;
+                int tstep = n/span;
+                switch (p) {
+                    case 2: radix2(x, m, span, tstep); break;
+                    case 3: radix3(x, m, span, tstep); break;
+                    case 4: radix4(x, m, span, tstep); break;
+                    default: radixOdd(x, p, m, span, tstep, oddCos[s], oddSin[s]); break;
+                }
+                m = span;
+            }
+        }
+
+        private void radix2(double[] x, int m, int span, int tstep) {
+            for (int k=0; k<m; k++) {
+                double wr = twiddles[2*k*tstep];
+                double wi = twiddles[2*k*tstep+1];
+                for (int j=k; j<n; j+=span) {
+                    int i0 = j << 1;
+                    int i1 = (j+m) << 1;
+                    double tr = wr*x[i1]-wi*x[i1+1];
+                    double ti = wr*x[i1+1]+wi*x[i1];
+                    x[i1] = x[i0]-tr;
+                    x[i1+1] = x[i0+1]-ti;
+                    x[i0] += tr;
+                    x[i0+1] += ti;
+                }
+            }
+        }
+
+        private void radix3(double[] x, int m, int span, int tstep) {
+            double s3 = isign*0.5*Math.sqrt(3.0);
+            for (int k=0; k<m; k++) {
+                double w1r = twiddles[2*k*tstep];
+                double w1i = twiddles[2*k*tstep+1];
+                double w2r = twiddles[4*k*tstep];
+                double w2i = twiddles[4*k*tstep+1];
+                for (int j=k; j<n; j+=span) {
+                    int i0 = j << 1;
+                    int i1 = (j+m) << 1;
+                    int i2 = (j+2*m) << 1;
+                    double b1r = w1r*x[i1]-w1i*x[i1+1];
+                    double b1i = w1r*x[i1+1]+w1i*x[i1];
+                    double b2r = w2r*x[i2]-w2i*x[i2+1];
+                    double b2i = w2r*x[i2+1]+w2i*x[i2];
+                    double t1r = b1r+b2r;
+                    double t1i = b1i+b2i;
+                    double t2r = x[i0]-0.5*t1r;
+                    double t2i = x[i0+1]-0.5*t1i;
+                    double t3r = s3*(b1r-b2r);
+                    double t3i = s3*(b1i-b2i);
+                    x[i0] += t1r;
+                    x[i0+1] += t1i;
+                    x[i1] = t2r-t3i;
+                    x[i1+1] = t2i+t3r;
+                    x[i2] = t2r+t3i;
+                    x[i2+1] = t2i-t3r;
+                }
+            }
+        }
+
+        private void radix4(double[] x, int m, int span, int tstep) {
+            for (int k=0; k<m; k++) {
+                double w1r = twiddles[2*k*tstep];
+                double w1i = twiddles[2*k*tstep+1];
+                double w2r = twiddles[4*k*tstep];
+                double w2i = twiddles[4*k*tstep+1];
+                double w3r = twiddles[6*k*tstep];
+                double w3i = twiddles[6*k*tstep+1];
+                for (int j=k; j<n; j+=span) {
+                    int i0 = j << 1;
+                    int i1 = (j+m) << 1;
+                    int i2 = (j+2*m) << 1;
+                    int i3 = (j+3*m) << 1;
+                    double b1r = w1r*x[i1]-w1i*x[i1+1];
+                    double b1i = w1r*x[i1+1]+w1i*x[i1];
+                    double b2r = w2r*x[i2]-w2i*x[i2+1];
+                    double b2i = w2r*x[i2+1]+w2i*x[i2];
+                    double b3r = w3r*x[i3]-w3i*x[i3+1];
+                    double b3i = w3r*x[i3+1]+w3i*x[i3];
+                    double s02r = x[i0]+b2r;
+                    double s02i = x[i0+1]+b2i;
+                    double d02r = x[i0]-b2r;
+                    double d02i = x[i0+1]-b2i;
+                    double s13r = b1r+b3r;
+                    double s13i = b1i+b3i;
+                    // (b1-b3) rotated by W4 = isign*i.
+                    double d13r = -isign*(b1i-b3i);
+                    double d13i = isign*(b1r-b3r);
+                    x[i0] = s02r+s13r;
+                    x[i0+1] = s02i+s13i;
+                    x[i1] = d02r+d13r;
+                    x[i1+1] = d02i+d13i;
+                    x[i2] = s02r-s13r;
+                    x[i2+1] = s02i-s13i;
+                    x[i3] = d02r-d13r;
+                    x[i3+1] = d02i-d13i;
+                }
+            }
+        }
+
+        private void radixOdd(double[] x, int p, int m, int span, int tstep, double[] cs, double[] sn) {
+            int half = p >> 1;
+            double[] br = new double[p];
+            double[] bi = new double[p];
+            double[] sumR = new double[half+1];
+            double[] sumI = new double[half+1];
+            double[] difR = new double[half+1];
+            double[] difI = new double[half+1];
+            for (int k=0; k<m; k++) {
+                for (int j=k; j<n; j+=span) {
+                    br[0] = x[j << 1];
+                    bi[0] = x[(j << 1)+1];
+                    for (int q=1; q<p; q++) {
+                        int pos = (j+q*m) << 1;
+                        int tw = (q*k*tstep) << 1;
+                        br[q] = twiddles[tw]*x[pos]-twiddles[tw+1]*x[pos+1];
+                        bi[q] = twiddles[tw]*x[pos+1]+twiddles[tw+1]*x[pos];
+                    }
+                    for (int q=1; q<=half; q++) {
+                        sumR[q] = br[q]+br[p-q];
+                        sumI[q] = bi[q]+bi[p-q];
+                        difR[q] = br[q]-br[p-q];
+                        difI[q] = bi[q]-bi[p-q];
+                    }
+                    for (int r=0; r<p; r++) {
+                        double xr = br[0];
+                        double xi = bi[0];
+                        for (int q=1; q<=half; q++) {
+                            int idx = (q*r) % p;
+                            xr += cs[idx]*sumR[q]-sn[idx]*difI[q];
+                            xi += cs[idx]*sumI[q]+sn[idx]*difR[q];
+                        }
+                        int pos = (j+r*m) << 1;
+                        x[pos] = xr;
+                        x[pos+1] = xi;
+                    }
+                }
+            }
+        }
+
+        private void bluestein(double[] x, double[][] scratch) {
+            int m = forwardConv.n;
+            double[] a = scratch[0];
+            double[] b = scratch[1];
+            java.util.Arrays.fill(a, 0.0);
+            for (int j=0; j<n; j++) {
+                double cr = chirp[2*j];
+                double ci = chirp[2*j+1];
+                a[2*j] = x[2*j]*cr-x[2*j+1]*ci;
+                a[2*j+1] = x[2*j]*ci+x[2*j+1]*cr;
+            }
+            forwardConv.load(a, 0, 1, b);
+            forwardConv.compute(b, null);
+            for (int k=0; k<m; k++) {
+                double re = b[2*k]*kernel[2*k]-b[2*k+1]*kernel[2*k+1];
+                double im = b[2*k]*kernel[2*k+1]+b[2*k+1]*kernel[2*k];
+                b[2*k] = re;
+                b[2*k+1] = im;
+            }
+            inverseConv.load(b, 0, 1, a);
+            inverseConv.compute(a, null);
+            double factor = 1.0/m;
+            for (int k=0; k<n; k++) {
+                double cr = chirp[2*k];
+                double ci = chirp[2*k+1];
+                x[2*k] = factor*(a[2*k]*cr-a[2*k+1]*ci);
+                x[2*k+1] = factor*(a[2*k]*ci+a[2*k+1]*cr);
+            }
+        }
+
+        private static int[] factorize(int n) {
+            int[] tmp = new int[32];
+            int count = 0;
+            while (n % 4 == 0) {
+                tmp[count++] = 4;
+                n >>= 2;
+            }
+            if (n % 2 == 0) {
+                tmp[count++] = 2;
+                n >>= 1;
+            }
+            for (int p=3; n>1; p+=2) {
+                while (n % p == 0) {
+                    tmp[count++] = p;
+                    n /= p;
+                }
+            }
+            int[] factors = new int[count];
+            System.arraycopy(tmp, 0, factors, 0, count);
+            return factors;
+        }
+
+        // digit reversal for a decimation in time with factors[0] as first stage.
+        private static int[] digitReversal(int n, int[] factors) {
+            int[] perm = new int[n];
+            for (int i=0; i<n; i++) {
+                int idx = i;
+                int rem = n;
+                int mult = 1;
+                int orig = 0;
+                for (int s=factors.length-1; s>=0; s--) {
+                    rem /= factors[s];
+                    orig += (idx / rem)*mult;
+                    idx %= rem;
+                    mult *= factors[s];
+                }
+                perm[i] = orig;
+            }
+            return perm;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package holoj;
+
+/**
+ * Class HoloJFFTBenchmark measures the 2D transform time of HoloJFFTPlan for an increasing number of threads.
+ * Usage: java holoj.HoloJFFTBenchmark [width] [height] [repetitions]
+ *
+ * @author Brian Mitchell
+ * @version 1.0
+ */
+public final class HoloJFFTBenchmark {
+
+    private static final int[] THREADS = {1, 2, 4, 8, 16, 32};
+
+    private HoloJFFTBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        int width = (args.length > 0) ? Integer.parseInt(args[0]) : 4096;
+        int height = (args.length > 1) ? Integer.parseInt(args[1]) : width;
+        int repetitions = (args.length > 2) ? Integer.parseInt(args[2]) : 5;
+        double[] data = new double[width*height << 1];
+        java.util.Random random = new java.util.Random(0);
+        for (int i=0; i<data.length; i++) data[i] = random.nextDouble();
+        HoloJFFTPlan forward = HoloJFFTPlan.getPlan(width, height, 1);
+        HoloJFFTPlan inverse = HoloJFFTPlan.getPlan(width, height, -1);
+        System.out.println("FFT "+width+"x"+height+", "+Runtime.getRuntime().availableProcessors()+" processors");
+        double serial = 0;
+        for (int t=0; t<THREADS.length; t++) {
+            HoloJFFTPlan.setParallelism(THREADS[t]);
+            // warm up once, then keep the best of the repetitions.
+            forward.transform(data);
+            inverse.transform(data);
+            long best = Long.MAX_VALUE;
+            for (int r=0; r<repetitions; r++) {
+                long start = System.nanoTime();
+                forward.transform(data);
+                best = Math.min(best, System.nanoTime()-start);
+                inverse.transform(data);
+            }
+            double ms = best/1e6;
+            if (t == 0) serial = ms;
+            System.out.printf("threads %2d : %9.1f ms  speedup %5.2f%n", THREADS[t], ms, serial/ms);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package holoj;
+
+/**
+ * Class HoloJFFTCheck checks the transforms of HoloJFFTPlan, forward and reverse: against the legacy
+ * radix-2 HoloJUtils.c2cfft(data, nn, isign) on power-of-two sizes from 2 to 4096, and against a direct
+ * separable DFT on odd, mixed-radix and Bluestein sizes. Each size is also transformed back and compared
+ * with the input. It prints one line per size and exits with status 1 if any error is above the tolerance.
+ * Usage: java holoj.HoloJFFTCheck [tolerance]
+ *
+ * @author Brian Mitchell
+ * @version 1.0
+ */
+public final class HoloJFFTCheck {
+
+    // the other side of power-of-two images wider than this is kept to it, so that 4096 stays quick.
+    private static final int MAX_SIDE = 256;
+    // odd smooth lengths, and lengths with a prime factor above 31, transformed with Bluestein.
+    private static final int[] OTHER_SIZES = {3, 5, 7, 9, 12, 15, 21, 25, 27, 31, 35, 45, 63, 96, 105, 37, 74, 101, 257, 303, 1009};
+
+    private HoloJFFTCheck() {
+    }
+
+    public static void main(String[] args) {
+        double tolerance = (args.length > 0) ? Double.parseDouble(args[0]) : 1e-10;
+        java.util.Random random = new java.util.Random(0);
+        int failures = 0;
+        for (int n=2; n<=4096; n<<=1) {
+            int side = Math.min(n, MAX_SIDE);
+            failures += check(n, side, tolerance, random, true);
+            if (side != n) failures += check(side, n, tolerance, random, true);
+        }
+        for (int i=0; i<OTHER_SIZES.length; i++) {
+            int n = OTHER_SIZES[i];
+            failures += check(n, n, tolerance, random, false);
+            failures += check(n, OTHER_SIZES[(i+7) % OTHER_SIZES.length], tolerance, random, false);
+        }
+        System.out.println((failures == 0) ? "all transforms agree" : failures+" transforms differ");
+        if (failures != 0) System.exit(1);
+    }
+
+    // checks one size against c2cfft or the direct DFT; returns 1 on a mismatch.
+    private static int check(int width, int height, double tolerance, java.util.Random random, boolean legacy) {
+        double[] data = new double[width*height << 1];
+        for (int i=0; i<data.length; i++) data[i] = random.nextDouble()-0.5;
+        double[] expected;
+        if (legacy) {
+            expected = data.clone();
+            HoloJUtils.c2cfft(expected, new int[] {height, width}, 1);
+            // c2cfft scales by 1/height, the plans by 1/width.
+            double factor = (double)height/width;
+            for (int i=0; i<expected.length; i++) expected[i] *= factor;
+        } else {
+            expected = dft(data, width, height);
+        }
+        double[] result = data.clone();
+        HoloJFFTPlan.getPlan(width, height, 1).transform(result);
+        double forward = error(result, expected);
+        HoloJFFTPlan.getPlan(width, height, -1).transform(result);
+        // both directions are scaled by 1/width.
+        double factor = (double)width/height;
+        for (int i=0; i<result.length; i++) result[i] *= factor;
+        double inverse = error(result, data);
+        boolean ok = (forward <= tolerance) && (inverse <= tolerance);
+        System.out.printf("%5d x %-5d %-7s forward %.2e  inverse %.2e%s%n", width, height, legacy ? "c2cfft" : "DFT",
+                          forward, inverse, ok ? "" : "  FAILED");
+        return ok ? 0 : 1;
+    }
+
+    // largest difference relative to the largest magnitude of expected.
+    private static double error(double[] result, double[] expected) {
+        double max = 0.0;
+        double diff = 0.0;
+        for (int i=0; i<expected.length; i++) {
+            max = Math.max(max, Math.abs(expected[i]));
+            diff = Math.max(diff, Math.abs(result[i]-expected[i]));
+        }
+        return diff/max;
+    }
+
+    // forward DFT with the conventions of the plans: exp(+2*PI*i*j*k/n), scaled by 1/width, centered spectrum.
+    private static double[] dft(double[] data, int width, int height) {
+        double[] rows = new double[data.length];
+        for (int row=0; row<height; row++)
+            dft(data, row*width << 1, 2, width, rows);
+        double[] result = new double[data.length];
+        for (int col=0; col<width; col++)
+            dft(rows, col << 1, width << 1, height, result);
+        double factor = 1.0/width;
+        double[] centered = new double[data.length];
+        for (int row=0; row<height; row++) {
+            for (int col=0; col<width; col++) {
+                int src = (row*width+col) << 1;
+                int dst = ((((row+(height >> 1)) % height)*width)+(col+(width >> 1)) % width) << 1;
+                centered[dst] = factor*result[src];
+                centered[dst+1] = factor*result[src+1];
+            }
+        }
+        return centered;
+    }
+
+    // direct DFT of the n complex values from offset on, stride apart, into dest at the same places.
+    private static void dft(double[] src, int offset, int stride, int n, double[] dest) {
+        double[] cos = new double[n];
+        double[] sin = new double[n];
+        for (int k=0; k<n; k++) {
+            cos[k] = Math.cos(2*Math.PI*k/n);
+            sin[k] = Math.sin(2*Math.PI*k/n);
+        }
+        for (int k=0; k<n; k++) {
+            double re = 0.0;
+            double im = 0.0;
+            for (int j=0, pos=offset; j<n; j++, pos+=stride) {
+                int m = (int)((long)j*k % n);
+                re += src[pos]*cos[m]-src[pos+1]*sin[m];
+                im += src[pos]*sin[m]+src[pos+1]*cos[m];
+            }
+            dest[offset+k*stride] = re;
+            dest[offset+k*stride+1] = im;
+        }
+    }
+}
@@ -0,0 +1,659 @@
+package holoj;
+
+import java.nio.DoubleBuffer;
+import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Class HoloJFFTPlan stores everything needed to transform images of a given size in a given direction:
+ * the factorization, the digit-reversal permutation and the twiddle tables of rows and columns.
+ * Plans are computed once and cached, so repeated transforms of images with identical size
+ * do not recompute any trigonometric function.
+ * Row and column transforms are split across a ForkJoinPool whose parallelism can be set with setParallelism().
+ * A batch of same-size frames in one array is transformed at once, its lines shared by all threads.
+ * Images held off the heap in a DoubleBuffer are transformed line by line through small heap buffers.
+ * Real images have their own transforms, realToComplex() and complexToReal(), which work on the
+ * width/2+1 columns of non negative frequency only and transform rows two at a time.
+ *
+ * @author Brian Mitchell
+ * @version 1.0
+ */
+public final class HoloJFFTPlan {
+
+    // cache of plans, keyed by width, height and direction.
+    private static final HashMap<String, HoloJFFTPlan> plans = new HashMap<String, HoloJFFTPlan>();
+    // cache of one dimensional transforms, shared between plans.
+    private static final HashMap<String, HoloJFFT.Line> lines = new HashMap<String, HoloJFFT.Line>();
+
+    // pool running row and column transforms, null when parallelism is 1.
+    private static ForkJoinPool pool = null;
+    private static int parallelism = 1;
+    static {
+        setParallelism(Runtime.getRuntime().availableProcessors());
+    }
+
+    private final int width;
+    private final int height;
+    private final int direction;
+    private final HoloJFFT.Line rowLine;
+    private final HoloJFFT.Line colLine;
+
+    private HoloJFFTPlan(int width, int height, int direction) {
+        if (width < 1)
+            throw new ArrayStoreException("HoloJFFTPlan: width < 1.");
+        if (height < 1)
+            throw new ArrayStoreException("HoloJFFTPlan: height < 1.");
+        if ((direction != 1) && (direction != -1))
+            throw new IllegalArgumentException("HoloJFFTPlan: direction must be 1 or -1.");
+        this.width = width;
+        this.height = height;
+        this.direction = direction;
+        rowLine = getLine(width, direction);
+        colLine = getLine(height, direction);
+    }
+
+   /**
+    * Returns the plan for images of the given size and direction, creating it on first use.
+    *
+    * @param width      length of a row.
+    * @param height     number of rows.
+    * @param direction  forward (1) or reverse (-1) direction.
+    * @return the cached plan.
+    */
+    public static synchronized HoloJFFTPlan getPlan(int width, int height, int direction) {
+        String key = width+"x"+height+":"+direction;
+        HoloJFFTPlan plan = plans.get(key);
+        if (plan == null) {
+            plan = new HoloJFFTPlan(width, height, direction);
+            plans.put(key, plan);
+        }
+        return plan;
+    }
+
+   /**
+    * Removes all cached plans.
+    */
+    public static synchronized void clearCache() {
+        plans.clear();
+        lines.clear();
+    }
+
+   /**
+    * Sets the number of threads used by the transforms.
+    *
+    * @param threads    number of threads, 1 for serial transforms.
+    */
+    public static synchronized void setParallelism(int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("setParallelism: threads < 1.");
+        if ((pool != null) && (threads == parallelism)) return;
+        // the replaced pool is not shut down: transforms running on other threads may still
+        // hold it from getPool(). Its workers end on their own once idle.
+        pool = (threads > 1) ? new ForkJoinPool(threads) : null;
+        parallelism = threads;
+    }
+
+   /**
+    * Returns the number of threads used by the transforms.
+    *
+    * @return the parallelism level.
+    */
+    public static synchronized int getParallelism() {
+        return parallelism;
+    }
+
+    static synchronized ForkJoinPool getPool() {
+        return pool;
+    }
+
+    private static HoloJFFT.Line getLine(int n, int direction) {
+        String key = n+":"+direction;
+        HoloJFFT.Line line = lines.get(key);
+        if (line == null) {
+            line = new HoloJFFT.Line(n, direction);
+            lines.put(key, line);
+        }
+        return line;
+    }
+
+   /**
+    * Transforms in place data in row-major mode and RE1,CO1,RE2,CO2... sequence.
+    * The forward transform returns a centered spectrum and both directions are scaled by 1/width.
+    * The quadrant swap is folded into the transform: the forward direction stores each row and column
+    * at its centered position, the reverse direction loads them from it, so no separate pass over
+    * the image is needed. Odd and non-square sizes are centered like HoloJUtils.swap.
+    *
+    * @param data       data to be transformed.
+    */
+    public void transform(double[] data) {
+        transform(data, 1);
+    }
+
+   /**
+    * Transforms in place a batch of frames stored one after the other, each in row-major mode and
+    * RE1,CO1,RE2,CO2... sequence, as transform(data) does for each of them.
+    * The rows of all frames are split across the pool, then the columns of all frames, so the
+    * threads are kept busy even when a single frame has too few lines to share.
+    *
+    * @param data       frames to be transformed, frame f starting at f*2*width*height.
+    * @param frames     number of frames.
+    */
+    public void transform(double[] data, int frames) {
+        if (frames < 1)
+            throw new IllegalArgumentException("transform: frames < 1.");
+        if (data.length < ((long)width*height*frames << 1))
+            throw new IndexOutOfBoundsException("transform: data is smaller than frames*width*height.");
+        int rows = frames*height;
+        int columns = frames*width;
+        ForkJoinPool fjp = getPool();
+        if (fjp == null) {
+            transformRows(data, 0, rows);
+            transformColumns(data, 0, columns);
+        } else {
+            int grain = Math.max(1, rows/(fjp.getParallelism() << 2));
+            fjp.invoke(new LineTask(data, true, 0, rows, grain));
+            grain = Math.max(1, columns/(fjp.getParallelism() << 2));
+            fjp.invoke(new LineTask(data, false, 0, columns, grain));
+        }
+    }
+
+   /**
+    * Transforms in place single precision data in row-major mode and RE1,CO1,RE2,CO2... sequence.
+    * Each row and column is computed in double precision and stored back as float.
+    *
+    * @param data       data to be transformed.
+    */
+    public void transform(float[] data) {
+        if (data.length < (width*height << 1))
+            throw new IndexOutOfBoundsException("transform: data is smaller than width*height.");
+        ForkJoinPool fjp = getPool();
+        if (fjp == null) {
+            transformRows(data, 0, height);
+            transformColumns(data, 0, width);
+        } else {
+            int grain = Math.max(1, height/(fjp.getParallelism() << 2));
+            fjp.invoke(new LineTask(data, true, 0, height, grain));
+            grain = Math.max(1, width/(fjp.getParallelism() << 2));
+            fjp.invoke(new LineTask(data, false, 0, width, grain));
+        }
+    }
+
+   /**
+    * Transforms in place data held in a buffer, such as the direct buffer of an off-heap HoloJProcessor,
+    * in row-major mode and RE1,CO1,RE2,CO2... sequence, with the same results as transform(double[]).
+    * Each row and column is copied into a heap buffer of its own length, transformed and copied back,
+    * so the heap used does not grow with the image. The position of data is not changed.
+    *
+    * @param data       data to be transformed.
+    */
+    public void transform(DoubleBuffer data) {
+        if (data.capacity() < ((long)width*height << 1))
+            throw new IndexOutOfBoundsException("transform: data is smaller than width*height.");
+        ForkJoinPool fjp = getPool();
+        if (fjp == null) {
+            transformRows(data, 0, height);
+            transformColumns(data, 0, width);
+        } else {
+            int grain = Math.max(1, height/(fjp.getParallelism() << 2));
+            fjp.invoke(new LineTask(data, true, 0, height, grain));
+            grain = Math.max(1, width/(fjp.getParallelism() << 2));
+            fjp.invoke(new LineTask(data, false, 0, width, grain));
+        }
+    }
+
+    // the reverse direction reads lines from their centered position.
+    private int loadShift(int n) {
+        return (direction == -1) ? n >> 1 : 0;
+    }
+
+    // the forward direction writes lines at their centered position.
+    private int storeShift(int n) {
+        return (direction == 1) ? n >> 1 : 0;
+    }
+
+    // rows keep their place; the reverse direction leaves them to the column pass to uncenter.
+    // Frames of a batch follow each other, so row r of frame f is simply row f*height+r.
+    private void transformRows(double[] data, int from, int to) {
+        double[] buffer = new double[width << 1];
+        double[][] scratch = rowLine.createScratch();
+        int rowLength = width << 1;
+        int load = loadShift(width);
+        int store = storeShift(width) << 1;
+        for (int row=from; row<to; row++) {
+            int offset = row*rowLength;
+            rowLine.load(data, offset, 1, load, buffer);
+            rowLine.compute(buffer, scratch);
+            System.arraycopy(buffer, 0, data, offset+store, rowLength-store);
+            System.arraycopy(buffer, rowLength-store, data, offset, store);
+        }
+    }
+
+    // columns are numbered across the frames of a batch: column c is column c%width of frame c/width.
+    private void transformColumns(double[] data, int from, int to) {
+        double[] buffer = new double[height << 1];
+        double[][] scratch = colLine.createScratch();
+        int rowLength = width << 1;
+        int frameLength = rowLength*height;
+        int load = loadShift(height);
+        int store = storeShift(height);
+        double factor = 1.0/width;
+        for (int column=from; column<to; column++) {
+            int frame = column/width;
+            int start = frame*frameLength+((column-frame*width) << 1);
+            colLine.load(data, start, width, load, buffer);
+            colLine.compute(buffer, scratch);
+            for (int row=0, dst=store; row<height; row++) {
+                int pos = start+dst*rowLength;
+                data[pos] = factor*buffer[2*row];
+                data[pos+1] = factor*buffer[2*row+1];
+                if (++dst == height) dst = 0;
+            }
+        }
+    }
+
+    private void transformRows(DoubleBuffer data, int from, int to) {
+        double[] line = new double[width << 1];
+        double[] buffer = new double[width << 1];
+        double[][] scratch = rowLine.createScratch();
+        int rowLength = width << 1;
+        int load = loadShift(width);
+        int store = storeShift(width) << 1;
+        for (int row=from; row<to; row++) {
+            int offset = row*rowLength;
+            HoloJBufferPool.get(data, offset, line, 0, rowLength);
+            rowLine.load(line, 0, 1, load, buffer);
+            rowLine.compute(buffer, scratch);
+            HoloJBufferPool.put(data, offset+store, buffer, 0, rowLength-store);
+            HoloJBufferPool.put(data, offset, buffer, rowLength-store, store);
+        }
+    }
+
+    private void transformColumns(DoubleBuffer data, int from, int to) {
+        double[] line = new double[height << 1];
+        double[] buffer = new double[height << 1];
+        double[][] scratch = colLine.createScratch();
+        int rowLength = width << 1;
+        int load = loadShift(height);
+        int store = storeShift(height);
+        double factor = 1.0/width;
+        for (int col=from; col<to; col++) {
+            for (int row=0, pos=col << 1; row<height; row++, pos+=rowLength) {
+                line[2*row] = data.get(pos);
+                line[2*row+1] = data.get(pos+1);
+            }
+            colLine.load(line, 0, 1, load, buffer);
+            colLine.compute(buffer, scratch);
+            for (int row=0, dst=store; row<height; row++) {
+                int pos = dst*rowLength+(col << 1);
+                data.put(pos, factor*buffer[2*row]);
+                data.put(pos+1, factor*buffer[2*row+1]);
+                if (++dst == height) dst = 0;
+            }
+        }
+    }
+
+    private void transformRows(float[] data, int from, int to) {
+        double[] buffer = new double[width << 1];
+        double[][] scratch = rowLine.createScratch();
+        int rowLength = width << 1;
+        int load = loadShift(width);
+        int store = storeShift(width);
+        for (int row=from; row<to; row++) {
+            int offset = row*rowLength;
+            rowLine.load(data, offset, 1, load, buffer);
+            rowLine.compute(buffer, scratch);
+            for (int col=0, dst=store; col<width; col++) {
+                data[offset+2*dst] = (float)buffer[2*col];
+                data[offset+2*dst+1] = (float)buffer[2*col+1];
+                if (++dst == width) dst = 0;
+            }
+        }
+    }
+
+    private void transformColumns(float[] data, int from, int to) {
+        double[] buffer = new double[height << 1];
+        double[][] scratch = colLine.createScratch();
+        int rowLength = width << 1;
+        int load = loadShift(height);
+        int store = storeShift(height);
+        double factor = 1.0/width;
+        for (int col=from; col<to; col++) {
+            colLine.load(data, col << 1, width, load, buffer);
+            colLine.compute(buffer, scratch);
+            for (int row=0, dst=store; row<height; row++) {
+                int pos = dst*rowLength+(col << 1);
+                data[pos] = (float)(factor*buffer[2*row]);
+                data[pos+1] = (float)(factor*buffer[2*row+1]);
+                if (++dst == height) dst = 0;
+            }
+        }
+    }
+
+   /**
+    * Transforms real data in row-major mode into its centered spectrum, in RE1,CO1,RE2,CO2... sequence,
+    * as transform() would after setting the imaginary parts to zero. The plan must be forward.
+    * Two real rows are transformed at once as the real and imaginary parts of one complex row, and only
+    * the width/2+1 columns of non negative frequency are transformed; the other half of the spectrum
+    * is its Hermitian mirror, written straight at its centered position.
+    *
+    * @param real       real data, element k at real[k*stride].
+    * @param stride     1 for a plain real array, 2 for the real parts of an interleaved array.
+    * @param spectrum   destination of 2*width*height values. It may be real itself when stride is 2.
+    */
+    public void realToComplex(double[] real, int stride, double[] spectrum) {
+        realToComplex(real, 0, stride, spectrum, 0);
+    }
+
+   /**
+    * Transforms real data stored from realOffset on into its centered spectrum, stored from spectrumOffset on,
+    * as realToComplex(real, stride, spectrum) does. Used for one frame of a batch.
+    *
+    * @param real           real data, element k at real[realOffset+k*stride].
+    * @param realOffset     index of the first real element.
+    * @param stride         1 for a plain real array, 2 for the real parts of an interleaved array.
+    * @param spectrum       destination of 2*width*height values from spectrumOffset on.
+    * @param spectrumOffset index of the real part of the first spectrum pixel.
+    */
+    public void realToComplex(double[] real, int realOffset, int stride, double[] spectrum, int spectrumOffset) {
+        if (direction != 1)
+            throw new IllegalArgumentException("realToComplex: plan must be forward.");
+        if ((realOffset < 0) || (spectrumOffset < 0) || (real.length-realOffset < (width*height-1)*stride+1)
+                || (spectrum.length-spectrumOffset < (width*height << 1)))
+            throw new IndexOutOfBoundsException("realToComplex: data is smaller than width*height.");
+        int halfWidth = (width >> 1)+1;
+        double[] half = HoloJBufferPool.borrow(halfWidth*height << 1, false);
+        runReal(new RealTask(RealTask.ROW_PAIRS, real, realOffset, stride, half, spectrum, spectrumOffset, 0, (height+1) >> 1));
+        runReal(new RealTask(RealTask.COLUMNS, real, realOffset, stride, half, spectrum, spectrumOffset, 0, halfWidth));
+        runReal(new RealTask(RealTask.EXPAND, real, realOffset, stride, half, spectrum, spectrumOffset, 0, height));
+        HoloJBufferPool.release(half);
+    }
+
+   /**
+    * Returns the real part of the inverse transform of a centered spectrum, as transform() would.
+    * The plan must be reverse. The spectrum is first made Hermitian, (X[k]+conj(X[-k]))/2, which has
+    * the same real inverse, so only the width/2+1 columns of non negative frequency are transformed,
+    * and rows are transformed two at a time.
+    *
+    * @param spectrum   centered spectrum in RE1,CO1,RE2,CO2... sequence.
+    * @param real       destination, element k at real[k*stride]; with stride 2 the imaginary parts are set to zero.
+    * @param stride     1 for a plain real array, 2 for an interleaved array. It may be spectrum itself.
+    */
+    public void complexToReal(double[] spectrum, double[] real, int stride) {
+        if (direction != -1)
+            throw new IllegalArgumentException("complexToReal: plan must be reverse.");
+        if ((real.length < (width*height-1)*stride+1) || (spectrum.length < (width*height << 1)))
+            throw new IndexOutOfBoundsException("complexToReal: data is smaller than width*height.");
+        int halfWidth = (width >> 1)+1;
+        double[] half = HoloJBufferPool.borrow(halfWidth*height << 1, false);
+        runReal(new RealTask(RealTask.GATHER, real, 0, stride, half, spectrum, 0, 0, height));
+        runReal(new RealTask(RealTask.COLUMNS, real, 0, stride, half, spectrum, 0, 0, halfWidth));
+        runReal(new RealTask(RealTask.ROW_PAIRS, real, 0, stride, half, spectrum, 0, 0, (height+1) >> 1));
+        HoloJBufferPool.release(half);
+    }
+
+    private void runReal(RealTask task) {
+        ForkJoinPool fjp = getPool();
+        if (fjp == null) {
+            task.compute();
+        } else {
+            task.grain = Math.max(1, (task.to-task.from)/(fjp.getParallelism() << 2));
+            fjp.invoke(task);
+        }
+    }
+
+    // forward: rows 2*pair and 2*pair+1 of real into rows of half, for the pairs in [from, to).
+    // reverse: the same rows of half back into real.
+    private void realRowPairs(double[] real, int realOffset, int stride, double[] half, int from, int to) {
+        int halfWidth = (width >> 1)+1;
+        double[] line = new double[width << 1];
+        double[] buffer = new double[width << 1];
+        double[][] scratch = rowLine.createScratch();
+        double factor = 1.0/width;
+        for (int pair=from; pair<to; pair++) {
+            int a = pair << 1;
+            int b = a+1;
+            boolean hasB = b < height;
+            int aHalf = a*halfWidth << 1;
+            int bHalf = b*halfWidth << 1;
+            if (direction == 1) {
+                for (int col=0, pa=realOffset+a*width*stride, pb=realOffset+b*width*stride; col<width; col++, pa+=stride, pb+=stride) {
+                    line[2*col] = real[pa];
+                    line[2*col+1] = hasB ? real[pb] : 0.0;
+                }
+                rowLine.load(line, 0, 1, buffer);
+                rowLine.compute(buffer, scratch);
+                // Z = A+iB with A and B Hermitian: A = (Z[k]+conj(Z[-k]))/2, B = (Z[k]-conj(Z[-k]))/2i.
+                for (int k=0; k<halfWidth; k++) {
+                    int m = (k == 0) ? 0 : width-k;
+                    double zr = buffer[2*k];
+                    double zi = buffer[2*k+1];
+                    double mr = buffer[2*m];
+                    double mi = buffer[2*m+1];
+                    half[aHalf+2*k] = 0.5*(zr+mr);
+                    half[aHalf+2*k+1] = 0.5*(zi-mi);
+                    if (hasB) {
+                        half[bHalf+2*k] = 0.5*(zi+mi);
+                        half[bHalf+2*k+1] = 0.5*(mr-zr);
+                    }
+                }
+            } else {
+                // Z = A+iB, the rows of half giving the non negative frequencies of A and B.
+                for (int k=0; k<width; k++) {
+                    int src = (k < halfWidth) ? k : width-k;
+                    double sign = (k < halfWidth) ? 1.0 : -1.0;
+                    double ar = half[aHalf+2*src];
+                    double ai = sign*half[aHalf+2*src+1];
+                    double br = hasB ? half[bHalf+2*src] : 0.0;
+                    double bi = hasB ? sign*half[bHalf+2*src+1] : 0.0;
+                    line[2*k] = ar-bi;
+                    line[2*k+1] = ai+br;
+                }
+                rowLine.load(line, 0, 1, buffer);
+                rowLine.compute(buffer, scratch);
+                for (int col=0, pa=realOffset+a*width*stride, pb=realOffset+b*width*stride; col<width; col++, pa+=stride, pb+=stride) {
+                    real[pa] = factor*buffer[2*col];
+                    if (stride == 2) real[pa+1] = 0.0;
+                    if (hasB) {
+                        real[pb] = factor*buffer[2*col+1];
+                        if (stride == 2) real[pb+1] = 0.0;
+                    }
+                }
+            }
+        }
+    }
+
+    // transforms the columns [from, to) of half in place. The forward transform is scaled by 1/width.
+    private void realColumns(double[] half, int from, int to) {
+        int halfWidth = (width >> 1)+1;
+        double[] buffer = new double[height << 1];
+        double[][] scratch = colLine.createScratch();
+        double factor = (direction == 1) ? 1.0/width : 1.0;
+        for (int col=from; col<to; col++) {
+            colLine.load(half, col << 1, halfWidth, buffer);
+            colLine.compute(buffer, scratch);
+            for (int row=0, pos=col << 1; row<height; row++, pos+=halfWidth << 1) {
+                half[pos] = factor*buffer[2*row];
+                half[pos+1] = factor*buffer[2*row+1];
+            }
+        }
+    }
+
+    // writes the frequency rows [from, to) of the full centered spectrum from half and its Hermitian mirror.
+    private void realExpand(double[] half, double[] spectrum, int spectrumOffset, int from, int to) {
+        int halfWidth = (width >> 1)+1;
+        int shiftX = width >> 1;
+        int shiftY = height >> 1;
+        for (int ky=from; ky<to; ky++) {
+            int mirror = (ky == 0) ? 0 : height-ky;
+            int row = (ky+shiftY) % height;
+            int base = row*width;
+            for (int kx=0; kx<width; kx++) {
+                int col = (kx+shiftX) % width;
+                int pos = spectrumOffset+((base+col) << 1);
+                if (kx < halfWidth) {
+                    int src = (ky*halfWidth+kx) << 1;
+                    spectrum[pos] = half[src];
+                    spectrum[pos+1] = half[src+1];
+                } else {
+                    int src = (mirror*halfWidth+width-kx) << 1;
+                    spectrum[pos] = half[src];
+                    spectrum[pos+1] = -half[src+1];
+                }
+            }
+        }
+    }
+
+    // reads the frequency rows [from, to) of a centered spectrum into half, made Hermitian.
+    private void realGather(double[] spectrum, double[] half, int from, int to) {
+        int halfWidth = (width >> 1)+1;
+        int shiftX = width >> 1;
+        int shiftY = height >> 1;
+        for (int ky=from; ky<to; ky++) {
+            int row = (ky+shiftY) % height;
+            int mirrorRow = (((ky == 0) ? 0 : height-ky)+shiftY) % height;
+            for (int kx=0; kx<halfWidth; kx++) {
+                int pos = (row*width+(kx+shiftX) % width) << 1;
+                int mirror = (mirrorRow*width+(((kx == 0) ? 0 : width-kx)+shiftX) % width) << 1;
+                int dst = (ky*halfWidth+kx) << 1;
+                half[dst] = 0.5*(spectrum[pos]+spectrum[mirror]);
+                half[dst+1] = 0.5*(spectrum[pos+1]-spectrum[mirror+1]);
+            }
+        }
+    }
+
+   /**
+    * Splits a range of one phase of the real transforms until it is smaller than the grain.
+    */
+    private final class RealTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        static final int ROW_PAIRS = 0;
+        static final int COLUMNS = 1;
+        static final int EXPAND = 2;
+        static final int GATHER = 3;
+
+        private final int phase;
+        private final double[] real;
+        private final int realOffset;
+        private final int stride;
+        private final double[] half;
+        private final double[] spectrum;
+        private final int spectrumOffset;
+        final int from;
+        final int to;
+        int grain = Integer.MAX_VALUE;
+
+        RealTask(int phase, double[] real, int realOffset, int stride, double[] half, double[] spectrum, int spectrumOffset,
+                 int from, int to) {
+            this.phase = phase;
+            this.real = real;
+            this.realOffset = realOffset;
+            this.stride = stride;
+            this.half = half;
+            this.spectrum = spectrum;
+            this.spectrumOffset = spectrumOffset;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected void compute() {
+            if (to-from > grain) {
+                int middle = (from+to) >>> 1;
+                RealTask first = new RealTask(phase, real, realOffset, stride, half, spectrum, spectrumOffset, from, middle);
+                RealTask second = new RealTask(phase, real, realOffset, stride, half, spectrum, spectrumOffset, middle, to);
+                first.grain = grain;
+                second.grain = grain;
+                invokeAll(first, second);
+                return;
+            }
+            switch (phase) {
+                case ROW_PAIRS: realRowPairs(real, realOffset, stride, half, from, to); break;
+                case COLUMNS: realColumns(half, from, to); break;
+                case EXPAND: realExpand(half, spectrum, spectrumOffset, from, to); break;
+                default: realGather(spectrum, half, from, to); break;
+            }
+        }
+    }
+
+   /**
+    * Splits a range of rows or columns until it is smaller than the grain.
+    */
+    private final class LineTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final double[] data;
+        private final float[] floatData;
+        private final DoubleBuffer bufferData;
+        private final boolean rows;
+        private final int from;
+        private final int to;
+        private final int grain;
+
+        LineTask(double[] data, boolean rows, int from, int to, int grain) {
+            this(data, null, null, rows, from, to, grain);
+        }
+
+        LineTask(float[] floatData, boolean rows, int from, int to, int grain) {
+            this(null, floatData, null, rows, from, to, grain);
+        }
+
+        LineTask(DoubleBuffer bufferData, boolean rows, int from, int to, int grain) {
+            this(null, null, bufferData, rows, from, to, grain);
+        }
+
+        private LineTask(double[] data, float[] floatData, DoubleBuffer bufferData, boolean rows, int from, int to, int grain) {
+            this.data = data;
+            this.floatData = floatData;
+            this.bufferData = bufferData;
+            this.rows = rows;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        protected void compute() {
+            if (to-from <= grain) {
+                if (floatData != null) {
+                    if (rows) transformRows(floatData, from, to);
+                    else transformColumns(floatData, from, to);
+                } else if (bufferData != null) {
+                    if (rows) transformRows(bufferData, from, to);
+                    else transformColumns(bufferData, from, to);
+                } else {
+                    if (rows) transformRows(data, from, to);
+                    else transformColumns(data, from, to);
+                }
+            } else {
+                int middle = (from+to) >>> 1;
+                invokeAll(new LineTask(data, floatData, bufferData, rows, from, middle, grain),
+                          new LineTask(data, floatData, bufferData, rows, middle, to, grain));
+            }
+        }
+    }
+
+   /**
+    *	Returns the width of the images transformed by this plan.
+    *
+    *	@return the image width.
+    */
+    public int getWidth() {
+        return width;
+    }
+
+   /**
+    *	Returns the height of the images transformed by this plan.
+    *
+    *	@return the image height.
+    */
+    public int getHeight() {
+        return height;
+    }
+
+   /**
+    *	Returns the direction of this plan.
+    *
+    *	@return 1 for forward and -1 for reverse transforms.
+    */
+    public int getDirection() {
+        return direction;
+    }
+}
@@ -0,0 +1,442 @@
+package holoj;
+
+import ij.*;
+import ij.measure.Calibration;
+import ij.process.*;
+import java.awt.*;
+
+/**
+ * Class HoloJFloatProcessor is the single precision counterpart of HoloJProcessor.
+ * Complex pixels are stored in a float array in RE1,CO1,RE2,CO2... sequence, halving the memory
+ * of the reconstruction pipeline. Transforms are computed line by line in double precision
+ * and only the stored values are rounded to float.
+ *
+ * @author Brian Mitchell
+ * @version 1.0
+ */
+public class HoloJFloatProcessor {
+
+    // radius of the excluded region in sideband center search.
+    private static final int EXCLUDED_RADIUS = 20;
+
+    // interleaved pixels RE1,CO1,RE2,CO2...
+    private float[] pixels = null;
+
+    // fields for image size.
+    private int width = 0;
+    private int height = 0;
+    private int size = 0;
+
+    // image calibration.
+    private Calibration cal;
+
+    // HoloJ processor title.
+    private String title = null;
+
+    // flags to store info on FFT operation.
+    private boolean isRealOrigin = true;
+    private boolean isSpectrumDomain = false;
+
+   /* ************************************************************ *
+    *
+    *	CONSTRUCTORS
+    *
+    * ************************************************************ */
+
+   /**
+    * Creates a new object of the class HoloJFloatProcessor with zero pixels.
+    *
+    * @param width      the size of the image along the X-axis
+    * @param height     the size of the image along the Y-axis
+    */
+    public HoloJFloatProcessor(int width, int height) {
+        if (width < 1)
+            throw new ArrayStoreException("Constructor: width < 1.");
+        if (height < 1)
+            throw new ArrayStoreException("Constructor: height < 1.");
+        this.width = width;
+        this.height = height;
+        size = width*height;
+        pixels = new float[size << 1];
+        isRealOrigin = false;
+    } // Constructor (int width, int height)
+
+   /**
+    * Creates a new object of the class HoloJFloatProcessor containing the Fresnel chirp
+    * used by HoloJUtils.propogatefunc, as the HoloJProcessor constructor with the same parameters.
+    *
+    * @param width      image width.
+    * @param height     image height.
+    * @param dx         pixel size along X.
+    * @param dy         pixel size along Y.
+    * @param distance   propagation distance.
+    * @param wavelength wavelength of the illumination.
+    */
+    public HoloJFloatProcessor(int width, int height, double dx, double dy, double distance, double wavelength) {
+        this(width, height);
+        new HoloJTransferFunction(width, height, dx, dy, distance, wavelength).fill(pixels);
+    } // Constructor (width, height, dx, dy, distance, wavelength)
+
+   /**
+    * Creates a new object of the class HoloJFloatProcessor.
+    *
+    * @param ip	ImageProcessor providing real data value.
+    */
+    public HoloJFloatProcessor(ImageProcessor ip) {
+        if (ip == null)
+            throw new ArrayStoreException("Constructor: ImageProcessor == null.");
+        width = ip.getWidth();
+        height = ip.getHeight();
+        size = width*height;
+        pixels = new float[size << 1];
+        if (ip.getPixels() instanceof byte[]) {
+            byte[] bsrc = (byte[])ip.getPixels();
+            for (int k=0; k<size; k++)
+                pixels[2*k] = (float)(bsrc[k] & 0xFF);
+        } else if (ip.getPixels() instanceof short[]) {
+            short[] ssrc = (short[])ip.getPixels();
+            for (int k=0; k<size; k++)
+                pixels[2*k] = (float)(ssrc[k] & 0xFFFF);
+        } else if (ip.getPixels() instanceof float[]) {
+            float[] fsrc = (float[])ip.getPixels();
+            for (int k=0; k<size; k++)
+                pixels[2*k] = fsrc[k];
+        } else {
+            throw new ArrayStoreException("Constructor: Unexpected image type.");
+        }
+        isRealOrigin = true;
+    } // Constructor (ImageProcessor ip)
+
+   /**
+    * Creates a new object of the class HoloJFloatProcessor from data in RE1,CO1,RE2,CO2... sequence.
+    * The array is used without copy.
+    *
+    * @param width      image width.
+    * @param height     image height.
+    * @param pixels     interleaved pixels array.
+    */
+    public HoloJFloatProcessor(int width, int height, float[] pixels) {
+        if (pixels.length != (width*height << 1))
+            throw new ArrayStoreException("Constructor: pixels array must contain width*height complex pixels.");
+        this.width = width;
+        this.height = height;
+        this.size = width*height;
+        this.pixels = pixels;
+        isRealOrigin = false;
+    } // Constructor (int width, int height, float[] pixels)
+
+   /**
+    * Creates a single precision copy of a HoloJProcessor.
+    *
+    * @param processor  the double precision processor.
+    */
+    public HoloJFloatProcessor(HoloJProcessor processor) {
+        this(processor.getWidth(), processor.getHeight());
+        for (int k=0; k<size; k++) {
+            pixels[2*k] = (float)processor.getReal(k);
+            pixels[2*k+1] = (float)processor.getComplex(k);
+        }
+        isSpectrumDomain = processor.isSpectrumDomain();
+        title = processor.getTitle();
+        cal = processor.getCalibration();
+    } // Constructor (HoloJProcessor processor)
+
+   /* ************************************************************ *
+    *
+    *	METHODS :: General : Data accessors and modifiers
+    *
+    * ************************************************************ */
+
+   /**
+    *	Returns the pixels in RE1,CO1,RE2,CO2... sequence. The array is the backing storage, not a copy.
+    *
+    *	@return the pixels array.
+    */
+    public float[] getPixelsArray() {
+        return pixels;
+    }
+
+   /**
+    *	Returns a double precision copy of this processor.
+    *
+    *	@return the HoloJProcessor.
+    */
+    public HoloJProcessor toHoloJProcessor() {
+        double[] data = new double[size << 1];
+        for (int k=0; k<data.length; k++)
+            data[k] = pixels[k];
+        HoloJProcessor processor = new HoloJProcessor(width, height, data);
+        processor.setTitle(title);
+        if (cal != null) processor.setCalibration(cal);
+        return processor;
+    }
+
+   /**
+    *	Returns the size of the image.
+    *
+    *	@return the image size.
+    */
+    public int getSize() {
+        return size;
+    }
+
+   /**
+    *	Returns the width of the image.
+    *
+    *	@return the image width.
+    */
+    public int getWidth() {
+        return width;
+    }
+
+   /**
+    *	Returns the height of the image.
+    *
+    *	@return the image height.
+    */
+    public int getHeight() {
+        return height;
+    }
+
+   /**
+    *	Returns true if the image has being Fourier transformed.
+    *
+    *	@return	true if image is in spectrum domain.
+    */
+    public boolean isSpectrumDomain() {
+        return isSpectrumDomain;
+    }
+
+   /**
+    *	Set the calibration of this HoloJFloatProcessor to new calibration.
+    *
+    *	@param newCal    new calibration to apply.
+    */
+    public void setCalibration(Calibration newCal) {
+        cal = newCal.copy();
+    }
+
+   /**
+    *	Return the calibration of this HoloJFloatProcessor.
+    *
+    *	@return  the calibration.
+    */
+    public Calibration getCalibration() {
+        return cal;
+    }
+
+   /**
+    *	Set the title of this HoloJFloatProcessor to new title.
+    *
+    *	@param newTitle  the new title to use.
+    */
+    public void setTitle(String newTitle) {
+        title = newTitle;
+    }
+
+   /**
+    *	Return the title of this HoloJFloatProcessor.
+    *
+    *	@return the title.
+    */
+    public String getTitle() {
+        return title;
+    }
+
+   /**
+    * Multiplies the pixels by the complex pixels of operand.
+    *
+    * @param operand    the HoloJFloatProcessor operand.
+    */
+    public void multiply(HoloJFloatProcessor operand) {
+        if (size != operand.getSize())
+            throw new IndexOutOfBoundsException("multiply: sizes must be equal.");
+        float[] op = operand.getPixelsArray();
+        for (int i=0; i<pixels.length; i+=2) {
+            float real = pixels[i]*op[i]-pixels[i+1]*op[i+1];
+            float complex = pixels[i]*op[i+1]+pixels[i+1]*op[i];
+            pixels[i] = real;
+            pixels[i+1] = complex;
+        }
+        isRealOrigin = false;
+    }
+
+   /**
+    * Multiplies in place the spectrum by a propagation transfer function.
+    *
+    * @param transfer   the transfer function, of the same size.
+    */
+    public void applyTransferFunction(HoloJTransfer transfer) {
+        if ((transfer.getWidth() != width) || (transfer.getHeight() != height))
+            throw new IndexOutOfBoundsException("applyTransferFunction: sizes must be equal.");
+        transfer.apply(pixels);
+        isRealOrigin = false;
+    }
+
+   /**
+    * Divides the pixels by the complex pixels of operand.
+    *
+    * @param operand    the HoloJFloatProcessor operand.
+    */
+    public void divide(HoloJFloatProcessor operand) {
+        if (size != operand.getSize())
+            throw new IndexOutOfBoundsException("divide: sizes must be equal.");
+        float[] op = operand.getPixelsArray();
+        for (int i=0; i<pixels.length; i+=2) {
+            float den = op[i]*op[i]+op[i+1]*op[i+1];
+            float real = (pixels[i]*op[i]+pixels[i+1]*op[i+1])/den;
+            float complex = (pixels[i+1]*op[i]-pixels[i]*op[i+1])/den;
+            pixels[i] = real;
+            pixels[i+1] = complex;
+        }
+        isRealOrigin = false;
+    }
+
+   /* ************************************************************ *
+    *
+    *	METHODS :: Fast Fourier Transforming
+    *
+    * ************************************************************ */
+
+   /**
+    * Perform Fast Fourier Transform in the forward direction, with the conventions of HoloJProcessor.doFFT.
+    */
+    public void doFFT() {
+        HoloJFFTPlan.getPlan(width, height, 1).transform(pixels);
+        isSpectrumDomain = true;
+    }
+
+   /**
+    * Perform Fast Fourier Transform in the backward direction.
+    * If the data was real before the forward transform, the imaginary part of the result is discarded.
+    */
+    public void doInverseFFT() {
+        HoloJFFTPlan.getPlan(width, height, -1).transform(pixels);
+        if (isRealOrigin)
+            for (int k=1; k<pixels.length; k+=2)
+                pixels[k] = 0.0f;
+        isSpectrumDomain = false;
+    }
+
+   /**
+    * Finds the position of the maximum lateral peak of the spectrum, as HoloJProcessor.getSidebandCenter.
+    *
+    * @param side   side of the spectrum where to look for the maximum.
+    * @return       the sideband position.
+    */
+    public Point getSidebandCenter(int side) {
+        if (isSpectrumDomain == false)
+            throw new ArrayStoreException("getSidebandCenter: image is not in Fourier domain.");
+        double maxValue = Double.NEGATIVE_INFINITY;
+        Point maxPos = new Point(0,0);
+        int xC = width >> 1;
+        int yC = height >> 1;
+        int firstRow = (side >= 0) ? 0 : height >> 1;
+        int lastRow = (side >= 0) ? height >> 1 : height;
+        for (int row = firstRow; row < lastRow; row++)
+            for (int col = 0; col < width; col++) {
+                int pos = (row*width+col) << 1;
+                double curVal = pixels[pos]*pixels[pos]+pixels[pos+1]*pixels[pos+1];
+                if ((((row-xC)*(row-xC)+(col-yC)*(col-yC)) > EXCLUDED_RADIUS*EXCLUDED_RADIUS) && (maxValue < curVal)) {
+                    maxValue = curVal;
+                    maxPos.setLocation(col,row);
+                }
+            }
+        return maxPos;
+    }
+
+   /**
+     * Returns an HoloJFloatProcessor containing the selected sideband data, as HoloJProcessor.getSideband.
+     *
+     * @param sideCenter	Point of sideband center.
+     * @param radius		radius of the selected region.
+     * @param scaleFactor	scale factor of final reconstructed image.
+     * @param useButterworth	flag for using soft aperture.
+     * @return the selected sideband.
+     */
+    public HoloJFloatProcessor getSideband(Point sideCenter, int radius, int scaleFactor, boolean useButterworth) {
+        if (isSpectrumDomain == false)
+            throw new ArrayStoreException("getSideband: image is not in Fourier domain.");
+        int maxDim = HoloJSidebandExtractor.getSidebandSize(width, height, sideCenter, scaleFactor);
+        float[] sidePix = HoloJSidebandExtractor.extract(pixels, width, height, sideCenter, radius, scaleFactor, useButterworth);
+        HoloJFloatProcessor sideband = new HoloJFloatProcessor(maxDim, maxDim, sidePix);
+        sideband.isSpectrumDomain = true;
+        return sideband;
+    }
+
+   /* ************************************************************ *
+    *
+    *	METHODS :: Display
+    *
+    * ************************************************************ */
+
+   /**
+    *	Creates a amplitude ImageProcessor.
+    *
+    *	@return		the FloatProcessor
+    */
+    public FloatProcessor createAmplitudeProcessor() {
+        float[] fsrc = new float[size];
+        for (int k=0; k<size; k++)
+            fsrc[k] = (float)Math.sqrt(pixels[2*k]*pixels[2*k]+pixels[2*k+1]*pixels[2*k+1]);
+        return new FloatProcessor(width, height, fsrc, null);
+    }
+
+   /**
+    *	Creates a phase ImageProcessor, with the conventions of HoloJProcessor.createPhaseProcessor.
+    *
+    *	@return		the FloatProcessor
+    */
+    public FloatProcessor createPhaseProcessor() {
+        float[] fsrc = new float[size];
+        for (int k=0; k<size; k++)
+            fsrc[k] = (float)(Math.atan2(pixels[2*k],pixels[2*k+1])+Math.PI);
+        FloatProcessor fp = new FloatProcessor(width, height, fsrc, null);
+        HoloJUtils.resetMin(fp);
+        return fp;
+    }
+
+   /**
+    *	Creates an ImagePlus with the amplitude of data.
+    *
+    *	@param title		the title of the image.
+    */
+    public ImagePlus makeAmplitudeImage(String title) {
+        FloatProcessor fp = createAmplitudeProcessor();
+        fp.resetMinAndMax();
+        ImagePlus imp = new ImagePlus(title, fp);
+        if (cal != null) imp.setCalibration(cal);
+        return imp;
+    }
+
+   /**
+    *	Creates an ImagePlus with the phase of data.
+    *
+    *	@param title		the title of the image.
+    */
+    public ImagePlus makePhaseImage(String title) {
+        FloatProcessor fp = createPhaseProcessor();
+        fp.resetMinAndMax();
+        ImagePlus imp = new ImagePlus(title, fp);
+        if (cal != null) imp.setCalibration(cal);
+        return imp;
+    }
+
+   /**
+    *	Creates and show an ImagePlus displaying the amplitude of data.
+    *
+    *	@param title		the title of the displayied image.
+    */
+    public void showAmplitude(String title) {
+        makeAmplitudeImage(title).show();
+    }
+
+   /**
+    *	Creates and show an ImagePlus displaying the phase of data.
+    *
+    *	@param title		the title of the displayied image.
+    */
+    public void showPhase(String title) {
+        makePhaseImage(title).show();
+    }
+}// end of class HoloJFloatProcessor
@@ -0,0 +1,202 @@
+package holoj;
+
+/**
+ * Class HoloJKernels holds the complex pixel loops shared by HoloJProcessor, HoloJUtils and HoloJExpression:
+ * sums, differences, products and quotients of two images, and the addition of a constant.
+ * Images are either interleaved, RE1,CO1,RE2,CO2..., or split in real and imaginary arrays.
+ * This class is the scalar implementation. At startup get() looks for holoj.vector.HoloJVectorKernels,
+ * compiled from the vector subdirectory against the jdk.incubator.vector module, and uses it when the
+ * module is present (java --add-modules jdk.incubator.vector) and the processor has SIMD registers.
+ * Otherwise, or with -Dholoj.kernels=scalar, the scalar loops are used. Both give the same results, bit for bit.
+ *
+ * @author Brian Mitchell
+ * @version 1.0
+ */
+public class HoloJKernels {
+
+    private static final String VECTOR_KERNELS = "holoj.vector.HoloJVectorKernels";
+    private static final HoloJKernels kernels = load();
+
+    protected HoloJKernels() {
+    }
+
+    private static HoloJKernels load() {
+        if ("scalar".equals(System.getProperty("holoj.kernels"))) return new HoloJKernels();
+        try {
+            return (HoloJKernels)Class.forName(VECTOR_KERNELS).getDeclaredConstructor().newInstance();
+        } catch (Exception e) {
+            return new HoloJKernels();
+        } catch (LinkageError e) {
+            // jdk.incubator.vector is not among the modules of the running JVM.
+            return new HoloJKernels();
+        }
+    }
+
+   /**
+    *	Returns the kernels chosen at startup.
+    *
+    *	@return the vector kernels when available, else the scalar ones.
+    */
+    public static HoloJKernels get() {
+        return kernels;
+    }
+
+   /**
+    *	Returns the name of the implementation, for logs and benchmarks.
+    *
+    *	@return "scalar", or the vector shape of the vector kernels.
+    */
+    public String getName() {
+        return "scalar";
+    }
+
+   /**
+    * Adds the interleaved pixels of p1 and p2 into dest, which may be one of them.
+    *
+    * @param p1         first operand, RE1,CO1,RE2,CO2...
+    * @param p2         second operand.
+    * @param dest       destination.
+    * @param count      number of complex pixels.
+    */
+    public void add(double[] p1, double[] p2, double[] dest, int count) {
+        for (int i=0; i<(count << 1); i++)
+            dest[i] = p1[i]+p2[i];
+    }
+
+   /**
+    * Subtracts the interleaved pixels of p2 from p1 into dest, which may be one of them.
+    *
+    * @param p1         first operand, RE1,CO1,RE2,CO2...
+    * @param p2         second operand.
+    * @param dest       destination.
+    * @param count      number of complex pixels.
+    */
+    public void subtract(double[] p1, double[] p2, double[] dest, int count) {
+        for (int i=0; i<(count << 1); i++)
+            dest[i] = p1[i]-p2[i];
+    }
+
+   /**
+    * Multiplies the interleaved pixels of p1 by p2 into dest, which may be one of them.
+    *
+    * @param p1         first operand, RE1,CO1,RE2,CO2...
+    * @param p2         second operand.
+    * @param dest       destination.
+    * @param count      number of complex pixels.
+    */
+    public void multiply(double[] p1, double[] p2, double[] dest, int count) {
+        for (int i=0; i<(count << 1); i+=2) {
+            double re1 = p1[i], im1 = p1[i+1], re2 = p2[i], im2 = p2[i+1];
+            dest[i] = re1*re2-im1*im2;
+            dest[i+1] = re1*im2+re2*im1;
+        }
+    }
+
+   /**
+    * Divides the interleaved pixels of p1 by p2 into dest, which may be one of them.
+    *
+    * @param p1         first operand, RE1,CO1,RE2,CO2...
+    * @param p2         second operand.
+    * @param dest       destination.
+    * @param count      number of complex pixels.
+    */
+    public void divide(double[] p1, double[] p2, double[] dest, int count) {
+        for (int i=0; i<(count << 1); i+=2) {
+            double re1 = p1[i], im1 = p1[i+1], re2 = p2[i], im2 = p2[i+1];
+            double den = re2*re2+im2*im2;
+            dest[i] = (re1*re2+im1*im2)/den;
+            dest[i+1] = (re2*im1-re1*im2)/den;
+        }
+    }
+
+   /**
+    * Adds the split pixels of the two operands into the destination arrays, which may be operand arrays.
+    *
+    * @param re1        real parts of the first operand.
+    * @param im1        imaginary parts of the first operand.
+    * @param re2        real parts of the second operand.
+    * @param im2        imaginary parts of the second operand.
+    * @param reDest     real parts of the result.
+    * @param imDest     imaginary parts of the result.
+    * @param count      number of complex pixels.
+    */
+    public void add(double[] re1, double[] im1, double[] re2, double[] im2, double[] reDest, double[] imDest, int count) {
+        for (int i=0; i<count; i++) {
+            reDest[i] = re1[i]+re2[i];
+            imDest[i] = im1[i]+im2[i];
+        }
+    }
+
+   /**
+    * Subtracts the split pixels of the second operand from the first into the destination arrays.
+    *
+    * @param re1        real parts of the first operand.
+    * @param im1        imaginary parts of the first operand.
+    * @param re2        real parts of the second operand.
+    * @param im2        imaginary parts of the second operand.
+    * @param reDest     real parts of the result.
+    * @param imDest     imaginary parts of the result.
+    * @param count      number of complex pixels.
+    */
+    public void subtract(double[] re1, double[] im1, double[] re2, double[] im2, double[] reDest, double[] imDest, int count) {
+        for (int i=0; i<count; i++) {
+            reDest[i] = re1[i]-re2[i];
+            imDest[i] = im1[i]-im2[i];
+        }
+    }
+
+   /**
+    * Multiplies the split pixels of the first operand by the second into the destination arrays.
+    *
+    * @param re1        real parts of the first operand.
+    * @param im1        imaginary parts of the first operand.
+    * @param re2        real parts of the second operand.
+    * @param im2        imaginary parts of the second operand.
+    * @param reDest     real parts of the result.
+    * @param imDest     imaginary parts of the result.
+    * @param count      number of complex pixels.
+    */
+    public void multiply(double[] re1, double[] im1, double[] re2, double[] im2, double[] reDest, double[] imDest, int count) {
+        for (int i=0; i<count; i++) {
+            double r1 = re1[i], i1 = im1[i], r2 = re2[i], i2 = im2[i];
+            reDest[i] = r1*r2-i1*i2;
+            imDest[i] = r1*i2+r2*i1;
+        }
+    }
+
+   /**
+    * Divides the split pixels of the first operand by the second into the destination arrays.
+    *
+    * @param re1        real parts of the first operand.
+    * @param im1        imaginary parts of the first operand.
+    * @param re2        real parts of the second operand.
+    * @param im2        imaginary parts of the second operand.
+    * @param reDest     real parts of the result.
+    * @param imDest     imaginary parts of the result.
+    * @param count      number of complex pixels.
+    */
+    public void divide(double[] re1, double[] im1, double[] re2, double[] im2, double[] reDest, double[] imDest, int count) {
+        for (int i=0; i<count; i++) {
+            double r1 = re1[i], i1 = im1[i], r2 = re2[i], i2 = im2[i];
+            double den = r2*r2+i2*i2;
+            reDest[i] = (r1*r2+i1*i2)/den;
+            imDest[i] = (r2*i1-r1*i2)/den;
+        }
+    }
+
+   /**
+    * Adds the complex constant (realAdd, complexAdd) to split pixels in place.
+    *
+    * @param real       real parts.
+    * @param complex    imaginary parts.
+    * @param realAdd    real part of the constant.
+    * @param complexAdd imaginary part of the constant.
+    * @param count      number of complex pixels.
+    */
+    public void addConstant(double[] real, double[] complex, double realAdd, double complexAdd, int count) {
+        for (int i=0; i<count; i++) {
+            real[i] += realAdd;
+            complex[i] += complexAdd;
+        }
+    }
+}
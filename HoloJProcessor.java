@@ -5,6 +5,7 @@ import ij.gui.*;
 import ij.measure.Calibration;
 import ij.process.*;
 import java.awt.*;
+import java.nio.DoubleBuffer;
 
 /**
  * Class HoloJProcessor contains data and methods to provide high level access and manipulation to complex valued pixel data.
@@ -40,6 +41,15 @@ public class HoloJProcessor {
     double realPixels[] = null;
     double complexPixels[] = null;
 
+    // interleaved storage RE1,CO1,RE2,CO2..., used instead of realPixels and complexPixels when isInterleaved is true.
+    private double interleavedPixels[] = null;
+    private boolean isInterleaved = false;
+    // off-heap storage RE1,CO1,RE2,CO2... in a direct buffer, used instead of the arrays when not null.
+    private DoubleBuffer offHeapPixels = null;
+    // true while the pixel arrays come from HoloJBufferPool and were never handed out:
+    // storage conversions then give the replaced arrays back to the pool.
+    private boolean ownsPixels = false;
+
     // fields for image size.
     private int width = 0;
     private int height = 0;
@@ -86,8 +96,9 @@ public class HoloJProcessor {
         this.width = width;
         this.height = height;
         size = width*height;
-        realPixels = new double[size];
-        complexPixels = new double[size];
+        realPixels = HoloJBufferPool.borrow(size);
+        complexPixels = HoloJBufferPool.borrow(size);
+        ownsPixels = true;
         setComplexOrigin();
     } // Constructor (int width, int height)
     
@@ -108,23 +119,13 @@ public class HoloJProcessor {
         //width = 1024;height = 1024;
 		this.width = width;
         this.height = height;
-		int pos, x, y;
 		size = width*height;
-        realPixels = new double[size];
-        complexPixels = new double[size];
+        realPixels = HoloJBufferPool.borrow(size, false);
+        complexPixels = HoloJBufferPool.borrow(size, false);
+        ownsPixels = true;
+		// the transfer function is separable: only width+height phases are evaluated.
+		new HoloJTransferFunction(width, height, dx, dy, distance, wavelength).fill(realPixels, complexPixels);
 		
-		for (int row=0; row<height; row++) 
-        {
-                for (int col=0; col<width; col++) 
-                {
-                    pos = row*width+col;
-                    y = row - height/2;
-                    x = col - width/2;
-					realPixels[pos] = Math.cos(-1*Math.PI*wavelength*distance*((1.0*x/(width*dx))*(1.0*x/(width*dx)) + (1.0*y/(height*dy))*(1.0*y/(height*dy))));
-					complexPixels[pos] = Math.sin(-1*Math.PI*wavelength*distance*((1.0*x/(width*dx))*(1.0*x/(width*dx)) + (1.0*y/(height*dy))*(1.0*y/(height*dy))));
-                }
-        }//take the two arrays and make a holoJProcessor
-			
         setComplexOrigin();
 
     } // Constructor (width, height, dx, dy, distance, wavelength)
@@ -138,14 +139,44 @@ public class HoloJProcessor {
     * @param ip	ImageProcessor providing real data value.
     */
     public HoloJProcessor(ImageProcessor ip) {
+        this(ip, false);
+    } // Constructor (ImageProcessor ip)
+
+   /** 
+    * Creates a new object of the class HoloJProcessor, with its pixels stored off the heap if required.
+    * Off the heap the pixels are written straight into a direct buffer, so the hologram never
+    * takes heap arrays of its size, see setOffHeap().
+    *
+    * @param ip	        ImageProcessor providing real data value.
+    * @param offHeap    true to store the pixels off the heap.
+    */
+    public HoloJProcessor(ImageProcessor ip, boolean offHeap) {
         if (ip == null) 
             throw new 
                 ArrayStoreException("Constructor: ImageProcessor == null.");
         width = ip.getWidth();
         height = ip.getHeight();
         size = width*height;
-        realPixels = new double[size];
-        complexPixels = new double[size];
+        if (offHeap) {
+            Object pixels = ip.getPixels();
+            if (!(pixels instanceof byte[]) && !(pixels instanceof short[]) && !(pixels instanceof float[]))
+                throw new 
+                        ArrayStoreException("Constructor: Unexpected image type.");
+            offHeapPixels = HoloJBufferPool.borrowDirect(size << 1, false);
+            ownsPixels = true;
+            // imaginary parts of the row stay zero.
+            double[] line = new double[width << 1];
+            for (int row=0, k=0; row<height; row++) {
+                for (int col=0; col<width; col++, k++)
+                    line[2*col] = ip.getf(k);
+                HoloJBufferPool.put(offHeapPixels, row*width << 1, line, 0, width << 1);
+            }
+            setRealOrigin();
+            return;
+        }
+        realPixels = HoloJBufferPool.borrow(size, false);
+        complexPixels = HoloJBufferPool.borrow(size);
+        ownsPixels = true;
         if (ip.getPixels() instanceof byte[]) {
             byte[] bsrc = (byte[])ip.getPixels();
             for (int k=0; k<size; k++)
@@ -165,7 +196,7 @@ public class HoloJProcessor {
                 throw new 
                         ArrayStoreException("Constructor: Unexpected image type.");
         }
-    } // Constructor (ImageProcessor ip)
+    } // Constructor (ImageProcessor ip, boolean offHeap)
 
    /**
     * Creates a new object of the class HoloJProcessor, starting from data contained in the two ImageProcessors provided.
@@ -188,8 +219,9 @@ public class HoloJProcessor {
             throw new
 		ArrayStoreException("Constructor: Real and Complex part differ in size.");
 	
-	realPixels = new double[size];
-	complexPixels = new double[size];
+	realPixels = HoloJBufferPool.borrow(size, false);
+	complexPixels = HoloJBufferPool.borrow(size, false);
+        ownsPixels = true;
         setComplexOrigin();
 	// filling real data pixels
 	if (realIp.getPixels() instanceof byte[]) {
@@ -265,6 +297,43 @@ public class HoloJProcessor {
         this.size = width*height;
         setRealOrigin();
     } // HoloJProcessor(double[] realPixels, int width, int height)
+
+   /**
+    * Creates a new object of the HoloJProcessor class with interleaved storage.
+    * Data is provided by a double array in RE1,CO1,RE2,CO2... sequence, which is used without copy.
+    * 
+    * @param width              image width.
+    * @param height             image height.
+    * @param interleavedPixels  interleaved pixels array.
+    */
+    public HoloJProcessor(int width, int height, double[] interleavedPixels) {
+        if (interleavedPixels.length != (width*height << 1))
+            throw new ArrayStoreException("Constructor: interleaved array must contain width*height complex pixels.");
+        this.interleavedPixels = interleavedPixels;
+        this.isInterleaved = true;
+        this.width = width;
+        this.height = height;
+        this.size = width*height;
+        setComplexOrigin();
+    } // HoloJProcessor(int width, int height, double[] interleavedPixels)
+
+   /**
+    * Creates a new object of the HoloJProcessor class with off-heap storage, see setOffHeap().
+    * Data is provided by a buffer in RE1,CO1,RE2,CO2... sequence, which is used without copy.
+    * 
+    * @param width      image width.
+    * @param height     image height.
+    * @param pixels     interleaved pixels buffer, normally direct.
+    */
+    public HoloJProcessor(int width, int height, DoubleBuffer pixels) {
+        if (pixels.capacity() != (width*height << 1))
+            throw new ArrayStoreException("Constructor: buffer must contain width*height complex pixels.");
+        this.offHeapPixels = pixels;
+        this.width = width;
+        this.height = height;
+        this.size = width*height;
+        setComplexOrigin();
+    } // HoloJProcessor(int width, int height, DoubleBuffer pixels)
 	
    /* ************************************************************ *
     *
@@ -288,6 +357,8 @@ public class HoloJProcessor {
     *	@return the pixels array.
     */
     public double[] getRealPixelsArray() {
+        ensureSplit();
+        ownsPixels = false;
         return realPixels;
     }// getRealPixelsArray()
 
@@ -297,6 +368,8 @@ public class HoloJProcessor {
     *	@return the pixels array.
     */   	
     public double[] getComplexPixelsArray() {
+        ensureSplit();
+        ownsPixels = false;
         return complexPixels;
     }// getComplexPixelsArray()
         
@@ -306,6 +379,8 @@ public class HoloJProcessor {
     *	@param pixels   the pixels array.
     */
     public void setRealPixelsArray(double[] pixels) {
+        ensureSplit();
+        ownsPixels = false;
         realPixels = pixels;
     }// setRealPixelsArray()
 
@@ -315,9 +390,228 @@ public class HoloJProcessor {
     *	@param pixels   the pixels array.
     */ 	
     public void setComplexPixelsArray(double[] pixels) {
+        ensureSplit();
+        ownsPixels = false;
         complexPixels = pixels;
     }// setComplexPixelsArray()
 
+   /**
+    *	Returns the pixels in RE1,CO1,RE2,CO2... sequence, switching to interleaved storage if needed.
+    *	The returned array is the backing storage, not a copy.
+    *
+    *	@return the interleaved pixels array.
+    */
+    public double[] getInterleavedPixelsArray() {
+        setInterleaved(true);
+        ownsPixels = false;
+        return interleavedPixels;
+    }// getInterleavedPixelsArray()
+
+   /**
+    *	Selects the storage of pixel data: a single interleaved array or separate real and complex arrays.
+    *	Fast Fourier Transforms switch to interleaved storage by themselves, and accessors
+    *	of the real and complex arrays switch back to separate storage. Off-heap pixels are
+    *	brought back to the heap.
+    *
+    *	@param interleaved  true for interleaved storage.
+    */
+    public void setInterleaved(boolean interleaved) {
+        if (offHeapPixels != null) setOffHeap(false);
+        if (interleaved == isInterleaved) return;
+        if (interleaved) {
+            double[] data = HoloJBufferPool.borrow(size << 1, complexPixels == null);
+            for (int k=0; k<size; k++)
+                data[2*k] = realPixels[k];
+            if (complexPixels != null)
+                for (int k=0; k<size; k++)
+                    data[2*k+1] = complexPixels[k];
+            if (ownsPixels) {
+                HoloJBufferPool.release(realPixels);
+                HoloJBufferPool.release(complexPixels);
+            }
+            interleavedPixels = data;
+            realPixels = null;
+            complexPixels = null;
+            isInterleaved = true;
+        } else {
+            realPixels = HoloJBufferPool.borrow(size, false);
+            complexPixels = HoloJBufferPool.borrow(size, false);
+            for (int k=0; k<size; k++) {
+                realPixels[k] = interleavedPixels[2*k];
+                complexPixels[k] = interleavedPixels[2*k+1];
+            }
+            if (ownsPixels) HoloJBufferPool.release(interleavedPixels);
+            interleavedPixels = null;
+            isInterleaved = false;
+        }
+        // the new arrays are referenced by this processor only.
+        ownsPixels = true;
+    }// setInterleaved()
+
+   /**
+    *	Moves pixel data off the Java heap, into a direct buffer in RE1,CO1,RE2,CO2... sequence, or back
+    *	into an interleaved array. Off the heap, Fast Fourier Transforms, sideband extraction, transfer
+    *	functions and the pixel accessors work on the buffer directly, through heap buffers of one row
+    *	or column, so very large holograms neither fill the heap nor lengthen garbage collections.
+    *	Other operations bring the pixels back to the heap, as accessors of the real and complex arrays
+    *	switch interleaved storage back to separate storage. Buffers come from HoloJBufferPool.
+    *
+    *	@param offHeap  true for off-heap storage.
+    */
+    public void setOffHeap(boolean offHeap) {
+        if (offHeap == (offHeapPixels != null)) return;
+        if (offHeap) {
+            setInterleaved(true);
+            DoubleBuffer buffer = HoloJBufferPool.borrowDirect(size << 1, false);
+            HoloJBufferPool.put(buffer, 0, interleavedPixels, 0, size << 1);
+            if (ownsPixels) HoloJBufferPool.release(interleavedPixels);
+            interleavedPixels = null;
+            isInterleaved = false;
+            offHeapPixels = buffer;
+        } else {
+            double[] data = HoloJBufferPool.borrow(size << 1, false);
+            HoloJBufferPool.get(offHeapPixels, 0, data, 0, size << 1);
+            if (ownsPixels) HoloJBufferPool.release(offHeapPixels);
+            offHeapPixels = null;
+            interleavedPixels = data;
+            isInterleaved = true;
+        }
+        // the new storage is referenced by this processor only.
+        ownsPixels = true;
+    }// setOffHeap()
+
+   /**
+    *	Returns true if pixel data is stored off the heap.
+    *
+    *	@return true for off-heap storage.
+    */
+    public boolean isOffHeap() {
+        return offHeapPixels != null;
+    }// isOffHeap()
+
+   /**
+    *	Returns the pixels in RE1,CO1,RE2,CO2... sequence, switching to off-heap storage if needed.
+    *	The returned buffer is the backing storage, not a copy, and must be accessed by absolute index.
+    *
+    *	@return the off-heap pixels buffer.
+    */
+    public DoubleBuffer getPixelsBuffer() {
+        setOffHeap(true);
+        ownsPixels = false;
+        return offHeapPixels;
+    }// getPixelsBuffer()
+
+   /**
+    *	Gives the pixel arrays back to HoloJBufferPool, for the next images of the same size, if they
+    *	were borrowed there and never handed out; arrays provided by the caller, or returned by the
+    *	pixel array accessors, are only dropped. The processor must not be used afterwards.
+    */
+    public void release() {
+        if (ownsPixels) {
+            HoloJBufferPool.release(realPixels);
+            HoloJBufferPool.release(complexPixels);
+            HoloJBufferPool.release(interleavedPixels);
+            HoloJBufferPool.release(offHeapPixels);
+        }
+        realPixels = null;
+        complexPixels = null;
+        interleavedPixels = null;
+        offHeapPixels = null;
+        ownsPixels = false;
+    }// release()
+
+   /**
+    *	Returns true if pixel data is stored in a single interleaved array.
+    *
+    *	@return true for interleaved storage.
+    */
+    public boolean isInterleaved() {
+        return isInterleaved;
+    }// isInterleaved()
+
+   /**
+    *	Returns the real part of the pixel at index, whatever the storage.
+    *
+    *	@param index    pixel index in row major mode.
+    *	@return the real part.
+    */
+    public double getReal(int index) {
+        if (offHeapPixels != null) return offHeapPixels.get(index << 1);
+        return isInterleaved ? interleavedPixels[index << 1] : realPixels[index];
+    }// getReal()
+
+   /**
+    *	Returns the complex part of the pixel at index, whatever the storage.
+    *
+    *	@param index    pixel index in row major mode.
+    *	@return the complex part.
+    */
+    public double getComplex(int index) {
+        if (offHeapPixels != null) return offHeapPixels.get((index << 1)+1);
+        if (isInterleaved) return interleavedPixels[(index << 1)+1];
+        return (complexPixels == null) ? 0.0 : complexPixels[index];
+    }// getComplex()
+
+   /**
+    *	Sets the pixel at index, whatever the storage.
+    *
+    *	@param index    pixel index in row major mode.
+    *	@param real     the real part.
+    *	@param complex  the complex part.
+    */
+    public void setPixel(int index, double real, double complex) {
+        if (offHeapPixels != null) {
+            offHeapPixels.put(index << 1, real);
+            offHeapPixels.put((index << 1)+1, complex);
+        } else if (isInterleaved) {
+            interleavedPixels[index << 1] = real;
+            interleavedPixels[(index << 1)+1] = complex;
+        } else {
+            realPixels[index] = real;
+            complexPixels[index] = complex;
+        }
+    }// setPixel()
+
+    // Accessors of the storage for the package, converting it as the public ones do but keeping
+    // ownsPixels: the caller uses the storage during the call only, and never keeps or hands it out.
+
+    double[] realStorage() {
+        ensureSplit();
+        return realPixels;
+    }
+
+    double[] complexStorage() {
+        ensureSplit();
+        return complexPixels;
+    }
+
+    // gives a real image its imaginary parts, in an array borrowed from HoloJBufferPool.
+    void setComplexStorage(double[] pixels) {
+        ensureSplit();
+        complexPixels = pixels;
+    }
+
+    double[] interleavedStorage() {
+        setInterleaved(true);
+        return interleavedPixels;
+    }
+
+    DoubleBuffer bufferStorage() {
+        setOffHeap(true);
+        return offHeapPixels;
+    }
+
+    // marks the pixel storage as borrowed from HoloJBufferPool and referenced by this processor only,
+    // for processors built around pooled storage by the constructors taking arrays or buffers.
+    void setOwnsPixels(boolean owns) {
+        ownsPixels = owns;
+    }
+
+    // switches back to separate real and complex arrays.
+    private void ensureSplit() {
+        if (isInterleaved || (offHeapPixels != null)) setInterleaved(false);
+    }
+
    /**
     *	Returns the size of the image.
     *
@@ -354,21 +648,23 @@ public class HoloJProcessor {
         return isSpectrumDomain;	
     }
 
+   /**
+    *	Returns true if the data was real before any transform.
+    *
+    *	@return	true if image has a real origin.
+    */
+    public boolean isRealOrigin() {
+        return isRealOrigin;
+    }
+
    /**
     * Adds the complex pixels of operand HoloJProcessor to real and complex pixels.
     * 
     * @param operand		theHoloJProcessorr operand.
     */  
     public void add(HoloJProcessor operand){
-        if (size != operand.getSize()) 
-            throw new IndexOutOfBoundsException("add: sizes must be equal.");
-        double[] opRealPixels = operand.getRealPixelsArray();
-        double[] opComplexPixels = operand.getComplexPixelsArray();
-        for (int i=0; i<size; i++) {
-            realPixels[i] = realPixels[i]+opRealPixels[i];
-            complexPixels[i] = complexPixels[i]+opComplexPixels[i];	
-        }	
-        setComplexOrigin();
+        // in place, on the current storage of both images.
+        HoloJUtils.sumInto(this, operand, this);
     }
    	
    /**
@@ -377,15 +673,8 @@ public class HoloJProcessor {
     * @param operand		theHoloJProcessorr operand.
     */  
     public void subtract(HoloJProcessor operand){
-        if (size != operand.getSize()) 
-            throw new IndexOutOfBoundsException("subtract: sizes must be equal.");
-        double[] opRealPixels = operand.getRealPixelsArray();
-        double[] opComplexPixels = operand.getComplexPixelsArray();
-        for (int i=0; i<size; i++) {
-            realPixels[i] = realPixels[i]-opRealPixels[i];
-            complexPixels[i] = complexPixels[i]-opComplexPixels[i];	
-        }
-        setComplexOrigin();
+        // in place, on the current storage of both images.
+        HoloJUtils.subtractInto(this, operand, this);
     }
 
    /**
@@ -394,17 +683,8 @@ public class HoloJProcessor {
     * @param operand		theHoloJProcessorr operand.
     */  
     public void multiply(HoloJProcessor operand){
-        if (size != operand.getSize()) 
-            throw new IndexOutOfBoundsException("multiply: sizes must be equal.");
-        double[] opRealPixels = operand.getRealPixelsArray();
-        double[] opComplexPixels = operand.getComplexPixelsArray();
-        for (int i=0; i<size; i++) {
-            double real = realPixels[i]*opRealPixels[i]-complexPixels[i]*opComplexPixels[i];
-            double complex = realPixels[i]*opComplexPixels[i]+opRealPixels[i]*complexPixels[i];
-            realPixels[i] = real;
-            complexPixels[i] = complex;	
-        }	
-        setComplexOrigin();
+        // in place, on the current storage of both images.
+        HoloJUtils.multiplyInto(this, operand, this);
     }
     
    /**
@@ -413,6 +693,7 @@ public class HoloJProcessor {
     * @param operand		the ImageProcessor operand.
     */      
     public void multiply(ImageProcessor operand){
+        ensureSplit();
         int opWidth = operand.getWidth();
         int opHeight = operand.getHeight();
         int opSize = opWidth*opHeight;
@@ -432,6 +713,7 @@ public class HoloJProcessor {
     * @param operand		the ImageProcessor operand.
     */      
     public void add(ImageProcessor operand){
+        ensureSplit();
         int opWidth = operand.getWidth();
         int opHeight = operand.getHeight();
         int opSize = opWidth*opHeight;
@@ -449,6 +731,7 @@ public class HoloJProcessor {
     * @param operand		the ImageProcessor operand.
     */       
     public void subtract(ImageProcessor operand){
+        ensureSplit();
         int opWidth = operand.getWidth();
         int opHeight = operand.getHeight();
         int opSize = opWidth*opHeight;
@@ -466,6 +749,7 @@ public class HoloJProcessor {
     * @param operand		the ImageProcessor operand.
     */      
     public void divide(ImageProcessor operand){
+        ensureSplit();
         int opWidth = operand.getWidth();
         int opHeight = operand.getHeight();
         int opSize = opWidth*opHeight;
@@ -485,6 +769,7 @@ public class HoloJProcessor {
     * @param operandArray   the array operand.
     */   
     public void multiply(double[] operandArray){
+        ensureSplit();
         int opSize = operandArray.length;
         if (size != opSize) 
             throw new IndexOutOfBoundsException("multiply: sizes must be equal.");
@@ -500,6 +785,7 @@ public class HoloJProcessor {
     * @param operandArray   the array operand.
     */ 
     public void divide(double[] operandArray){
+        ensureSplit();
         int opSize = operandArray.length;
         if (size != opSize) 
             throw new IndexOutOfBoundsException("divide: sizes must be equal.");
@@ -515,6 +801,7 @@ public class HoloJProcessor {
     * @param operandArray   the array operand.
     */ 
     public void add(double[] operandArray){
+        ensureSplit();
         int opSize = operandArray.length;
         if (size != opSize) 
             throw new IndexOutOfBoundsException("add: sizes must be equal.");
@@ -529,6 +816,7 @@ public class HoloJProcessor {
     * @param operandArray   the array operand.
     */ 
     public void subtract(double[] operandArray){
+        ensureSplit();
         int opSize = operandArray.length;
         if (size != opSize) 
             throw new IndexOutOfBoundsException("subtract: sizes must be equal.");
@@ -544,21 +832,8 @@ public class HoloJProcessor {
     * @param operand		the HoloJProcessor operand.
     */  
     public void divide(HoloJProcessor operand){
-        if (size != operand.getSize()) 
-            throw new IndexOutOfBoundsException("divide: sizes must be equal.");
-        double[] opRealPixels = operand.getRealPixelsArray();
-        double[] opComplexPixels = operand.getComplexPixelsArray();
-        for (int i=0; i<size; i++) {
-            double real = (realPixels[i]*opRealPixels[i]-complexPixels[i]*opComplexPixels[i])/
-                        (opRealPixels[i]*opRealPixels[i]+
-                        opComplexPixels[i]*opComplexPixels[i]);
-            double complex = (realPixels[i]*opComplexPixels[i]+opRealPixels[i]*complexPixels[i])/
-                        (opRealPixels[i]*opRealPixels[i]+
-                        opComplexPixels[i]*opComplexPixels[i]);
-            realPixels[i] = real;
-            complexPixels[i] = complex;	
-        }
-        setComplexOrigin();
+        // in place, on the current storage of both images.
+        HoloJUtils.divideInto(this, operand, this);
     }
     
     /**
@@ -567,12 +842,10 @@ public class HoloJProcessor {
      * @param angle     radians to add.
      **/
     public void addPhase(double angle){
+        ensureSplit();
         double realAdd = Math.cos(angle);
         double complexAdd = Math.sin(angle);
-        for (int i=0; i<size; i++){
-            realPixels[i] += realAdd;
-            complexPixels[i] += complexAdd;
-        }
+        HoloJKernels.get().addConstant(realPixels, complexPixels, realAdd, complexAdd, size);
     }
     /**
      * Add to complex pixels the phase plate specified by the double array.
@@ -580,6 +853,7 @@ public class HoloJProcessor {
      * @param plateArray    the array of radians to add.
      */
     public void addPhasePlate(double[] plateArray){
+        ensureSplit();
         if (size != plateArray.length) 
             throw new IndexOutOfBoundsException("addPhasePlate: size of the phase-plate must be the same of HoloJProcessor.");
         for (int i=0; i<size; i++) {
@@ -642,12 +916,34 @@ public class HoloJProcessor {
     *
     * ************************************************************ */
 
+   /**
+    * Multiplies in place the spectrum by a propagation transfer function, Fresnel or angular spectrum.
+    * The transfer function is generated per pixel from its factors, so neither the kernel
+    * nor a product image is allocated. The result is complex, whatever the origin of the data.
+    *
+    * @param transfer   the transfer function, of the same size.
+    */
+    public void applyTransferFunction(HoloJTransfer transfer) {
+        if ((transfer.getWidth() != width) || (transfer.getHeight() != height))
+            throw new IndexOutOfBoundsException("applyTransferFunction: sizes must be equal.");
+        if (offHeapPixels != null) {
+            transfer.apply(offHeapPixels);
+        } else if (isInterleaved) {
+            transfer.apply(interleavedPixels);
+        } else {
+            if (complexPixels == null) complexPixels = HoloJBufferPool.borrow(size);
+            transfer.apply(realPixels, complexPixels);
+        }
+        setComplexOrigin();
+    }// applyTransferFunction()
+
    /**
     * Perform Fast Fourier Transform, in the forward direction of data stored in real and complex pixels.
-    * If source image is real, performes a RealToComplex transform using IJ FHT class.
+    * If source image is real, performes a RealToComplex transform, see HoloJFFTPlan.realToComplex,
+    * except off the heap, where the complex transform runs on the buffer.
     */
     public void doFFT() {
-            if (isRealOrigin) doRealToComplexFFT();
+            if (isRealOrigin && (offHeapPixels == null)) doRealToComplexFFT();
             else doComplexToComplexFFT(1);
             isSpectrumDomain = true;
     }// doFFT()
@@ -663,73 +959,64 @@ public class HoloJProcessor {
 	
    /**
     * Calculates the Fast Fourier Transform of real data stored in the 
-    * double array of real pixels. Starting from real values, it assumes 
+    * real pixels. Starting from real values, it assumes 
     * forward direction.
-    * It uses the Fast Hartley Transform provided by ImageJ class FHT.
-    * The complex result of the method is stored in realPixels and 
-    * complexPixels.
+    * The transform runs in double precision on the half spectrum of non negative
+    * frequencies and mirrors it, see HoloJFFTPlan.realToComplex.
+    * The complex result of the method is stored in interleaved storage.
     */	
     private void doRealToComplexFFT() {
-        //double[] pixels = (double[]) realPixels.clone();
-        FloatProcessor fp = new FloatProcessor(width, height, realPixels);
-        FHT transformer = new FHT(fp);
-        transformer.transform();
-        // scale factor to normalize FHT
-        double factor = 1.0/width;
-        transformer.swapQuadrants();
-        // from real FHT to complex FFT
-        float[] transformedPixels = (float[])transformer.getPixels();
-        for (int row=0; row<height; row++) {
-            int base = row * width;
-            for(int col=0; col<width; col++) {
-                int pos = base+col;
-                int antipos = ((height-row)%height)*width+(width-col)%width;
-                realPixels[row*width+col]=factor*0.5*(transformedPixels[pos]
-                                                     +transformedPixels[antipos]);
-                complexPixels[row*width+col]=factor*0.5*(transformedPixels[pos]
-                                                   -transformedPixels[antipos]);
-            }
+        HoloJFFTPlan plan = HoloJFFTPlan.getPlan(width, height, 1);
+        if (isInterleaved) {
+            plan.realToComplex(interleavedPixels, 2, interleavedPixels);
+            return;
         }
-    }// doRealToComplexFFT(double[] pixels)
+        double[] spectrum = HoloJBufferPool.borrow(size << 1, false);
+        plan.realToComplex(realPixels, 1, spectrum);
+        if (ownsPixels) {
+            HoloJBufferPool.release(realPixels);
+            HoloJBufferPool.release(complexPixels);
+        }
+        interleavedPixels = spectrum;
+        realPixels = null;
+        complexPixels = null;
+        isInterleaved = true;
+        ownsPixels = true;
+    }// doRealToComplexFFT()
         
     /**
     * Calculates inverse Fast Fourier Transform of complex pixels 
     * assuming they are the result of a RealToComplexFFT.
+    * Only the real part of the inverse is kept, see HoloJFFTPlan.complexToReal.
     */	
     private void doComplexToRealFFT(){
-        double[] pixels = new double[size];
-        for (int i = 0; i < size; i++) 
-            pixels[i]=realPixels[i]+complexPixels[i];
-        FloatProcessor fp = new FloatProcessor(width, height, pixels);
-        FHT transformer = new FHT(fp);
-        transformer.swapQuadrants();
-        transformer.transform();
-        double factor = 1.0/width;
-        float[] tPixels = (float[]) transformer.getPixels();
-        for (int i = 0; i < size; i++) {
-            realPixels[i]=factor*tPixels[i];
-            complexPixels[i]=0.0;
+        if (offHeapPixels != null) {
+            // the complex inverse of the buffer, whose real part is the same.
+            HoloJFFTPlan.getPlan(width, height, -1).transform(offHeapPixels);
+            for (int k=0; k<size; k++)
+                offHeapPixels.put((k << 1)+1, 0.0);
+            return;
         }
+        setInterleaved(true);
+        HoloJFFTPlan.getPlan(width, height, -1).complexToReal(interleavedPixels, interleavedPixels, 2);
     }
 
    /**
-    * Calculates the Fast Fourier Transform of complex data stored in the 
-    * double arrays of real and complex pixels.
-    * The complex result of the method is stored in realPixels and 
-    * complexPixels.
+    * Calculates the Fast Fourier Transform of complex data.
+    * The transform runs in place on the interleaved storage, which is
+    * selected if the processor still uses real and complex arrays, or on the off-heap buffer.
     *
     * @param direction		forward or reverse direction.
     */		
     private void doComplexToComplexFFT(int direction){
-        double[] pixelsData = HoloJUtils.arrangeToComplexArray(realPixels, complexPixels);
-        int[] dimensionArray = new int[2];
-        dimensionArray[0] = width;
-        dimensionArray[1] = height;
-        HoloJUtils.c2cfft(pixelsData, dimensionArray, direction);
-        realPixels = HoloJUtils.extractRealPixels(pixelsData);
-        complexPixels = HoloJUtils.extractComplexPixels(pixelsData);
+        if (offHeapPixels != null) {
+            HoloJFFTPlan.getPlan(width, height, direction).transform(offHeapPixels);
+            return;
+        }
+        setInterleaved(true);
+        HoloJFFTPlan.getPlan(width, height, direction).transform(interleavedPixels);
     } // doComplextoComplexFFT(double[] realPixels, double[] complexPixels, int direction)
-	
+
    /**
     * Creates and shows an ImagePlus containing the power spectrum.
     * The method uses showPowerSpectrum.
@@ -862,8 +1149,8 @@ public class HoloJProcessor {
         FloatProcessor fp = new  FloatProcessor(width, height) ;
         float[] fsrc = new float[size];
         for (int k=0; k<size; k++)
-            fsrc[k] = (float)(0.5*Math.log(Math.sqrt(realPixels[k]*realPixels[k]+
-                            complexPixels[k]*complexPixels[k])));
+            fsrc[k] = (float)(0.5*Math.log(Math.sqrt(getReal(k)*getReal(k)+
+                            getComplex(k)*getComplex(k))));
         fp.setPixels(fsrc);
         return fp;
     } // createPowerSpectrumProcessor()
@@ -877,8 +1164,8 @@ public class HoloJProcessor {
         FloatProcessor fp = new  FloatProcessor(width, height) ;
         float[] fsrc = new float[size];
         for (int k=0; k<size; k++)
-                fsrc[k] = (float)(Math.log(Math.sqrt(realPixels[k]*realPixels[k]+
-                                complexPixels[k]*complexPixels[k])));
+                fsrc[k] = (float)(Math.log(Math.sqrt(getReal(k)*getReal(k)+
+                                getComplex(k)*getComplex(k))));
         fp.setPixels(fsrc);
         return fp;
     } // createSpectrumProcessor()
@@ -892,7 +1179,7 @@ public class HoloJProcessor {
         FloatProcessor fp = new  FloatProcessor(width, height) ;
         float[] fsrc = new float[size];
         for (int k=0; k<size; k++)
-            fsrc[k] = (float)(HoloJUtils.modulus(realPixels[k],complexPixels[k]));
+            fsrc[k] = (float)(HoloJUtils.modulus(getReal(k),getComplex(k)));
         fp.setPixels(fsrc);
         return fp;
     } // crateAmplitudeProcessor()
@@ -907,8 +1194,8 @@ public class HoloJProcessor {
 		//double[] val = new double[size<<1];
 		//val = HoloJUtils.arrangeToComplexArray(realPixels,complexPixels);//line39
         for (int k=0; k<size; k++)
-			fsrc[k] = (float)realPixels[k];
-			//fsrc[k] = (float)(HoloJUtils.arrangeToComplexArray(realPixels[k],complexPixels[k]));
+			fsrc[k] = (float)getReal(k);
+			//fsrc[k] = (float)(HoloJUtils.arrangeToComplexArray(getReal(k),getComplex(k)));
         fp.setPixels(fsrc);
         return fp;
     } // cratePropProcessor()
@@ -922,7 +1209,7 @@ public class HoloJProcessor {
         FloatProcessor fp = new  FloatProcessor(width, height) ;
         float[] fsrc = new float[size];
         for (int k=0; k<size; k++)
-            fsrc[k] = (float)(Math.atan2(realPixels[k],complexPixels[k])+Math.PI);
+            fsrc[k] = (float)(Math.atan2(getReal(k),getComplex(k))+Math.PI);
         fp.setPixels(fsrc);
         HoloJUtils.resetMin(fp);
         return fp;
@@ -934,18 +1221,7 @@ public class HoloJProcessor {
     * @return		the maximum position.
     */		
     public Point getMaximumPosition(){
-        double maxVal = Double.NEGATIVE_INFINITY;
-        Point maxPos = new Point(0,0);
-        double curVal = 0.0;
-        for (int row = 0; row < height; row++)
-            for (int col = 0; col < width; col++) {
-                curVal = HoloJUtils.modulus(realPixels[row*width+col], complexPixels[row*width+col]);
-                if (maxVal < curVal) {
-                    maxVal = curVal;
-                    maxPos.setLocation(col,row);									
-                }	
-            }
-        return maxPos;
+        return getMaximumModulusPosition(0, height, 0, width, 0, 0, -1);
     }// getMaximumPosition()
 	
    /**
@@ -956,24 +1232,10 @@ public class HoloJProcessor {
     * @return				the maximum position.
     */		
     public Point getMaximumPosition(Roi selection){
-        double maxVal = Double.NEGATIVE_INFINITY;
-        Point maxPos = new Point(0,0);
-        double curVal = 0.0;
-        for (int row = 0; row < height; row++)
-            for (int col = 0; col < width; col++) {
-                if (((row >= selection.getBounds().y)&&
-                    (row <= selection.getBounds().y+selection.getBounds().height)) &&
-                    ((col >= selection.getBounds().x) &&
-                    (col <= selection.getBounds().x+selection.getBounds().width))) {
-                        curVal = HoloJUtils.modulus(realPixels[row*width+col], 
-                                                    complexPixels[row*width+col]);
-                        if (maxVal < curVal) {
-                            maxVal = curVal;
-                            maxPos.setLocation(col,row);									
-                        }	
-                   }
-            }
-        return maxPos;
+        Rectangle bounds = selection.getBounds();
+        // the bounds are inclusive.
+        return getMaximumModulusPosition(Math.max(bounds.y, 0), Math.min(bounds.y+bounds.height+1, height),
+                                         Math.max(bounds.x, 0), Math.min(bounds.x+bounds.width+1, width), 0, 0, -1);
     }// getMaximumPosition(Roi selection)
 
    /**
@@ -987,44 +1249,70 @@ public class HoloJProcessor {
     public Point getSidebandCenter(int side) {
             if (isSpectrumDomain == false) 
                     throw new ArrayStoreException("getSidebandCenter: image is not in Fourier domain.");
-            double maxValue = Double.NEGATIVE_INFINITY;
-            Point maxPos = new Point(0,0);
-            int xC = width >> 1;
-            int yC = height >> 1; 
-            double curVal = 0;
-            if ( side >= 0 ) {
-                    for (int row = 0; row < (height >> 1); row++)
-                            for (int col = 0; col < width; col++) {
-                                    curVal = HoloJUtils.modulus(realPixels[row*width+col], 
-                                                                                            complexPixels[row*width+col]); 
-                                    if (
-                                            ( ( (row-xC)*(row-xC) +
-                                            (col-yC)*(col-yC) ) > EXCLUDED_RADIUS*EXCLUDED_RADIUS ) &&
-                                            ( maxValue < curVal )
-                                    ) {
-                                            maxValue = curVal;
-                                            maxPos.setLocation(col,row);	
-                                    }
+            // the row is compared with width/2 and the column with height/2, as it always was.
+            if ( side >= 0 )
+                    return getMaximumModulusPosition(0, height >> 1, 0, width, height >> 1, width >> 1, EXCLUDED_RADIUS);
+            return getMaximumModulusPosition(height >> 1, height, 0, width, height >> 1, width >> 1, EXCLUDED_RADIUS);
+    }// getSidebandCenter()
 
-                            }
+   /**
+    * Finds the maximum of the modulus in rows rowFrom to rowTo-1 and columns colFrom to colTo-1,
+    * skipping the pixels within radius of (xC, yC) when radius is not negative. The storage is
+    * checked once, and the backing arrays, or a row copy of the buffer, are read directly.
+    *
+    * @param rowFrom    first row.
+    * @param rowTo      last row+1.
+    * @param colFrom    first column.
+    * @param colTo      last column+1.
+    * @param xC         column of the center of the excluded region.
+    * @param yC         row of the center of the excluded region.
+    * @param radius     radius of the excluded region, negative for none.
+    * @return the maximum position, (0,0) if the region is empty.
+    */
+    Point getMaximumModulusPosition(int rowFrom, int rowTo, int colFrom, int colTo, int xC, int yC, int radius) {
+        double maxVal = Double.NEGATIVE_INFINITY;
+        // the square root, as in HoloJUtils.modulus, is only taken for a larger squared modulus:
+        // it is monotonic, so the pixels skipped could not have been a new maximum.
+        double maxSq = Double.NEGATIVE_INFINITY;
+        Point maxPos = new Point(0,0);
+        // interleaved pixels, or a row of the buffer copied into line; null for separate arrays.
+        double[] data = isInterleaved ? interleavedPixels : null;
+        double[] line = null;
+        if (offHeapPixels != null) {
+            line = new double[width << 1];
+            data = line;
+        }
+        int radius2 = (radius >= 0) ? radius*radius : -1;
+        for (int row = rowFrom; row < rowTo; row++) {
+            int dy2 = (row-yC)*(row-yC);
+            if (data != null) {
+                int pos = row*width << 1;
+                if (line != null) {
+                    HoloJBufferPool.get(offHeapPixels, pos, line, 0, width << 1);
+                    pos = 0;
+                }
+                for (int col = colFrom, k = pos+(colFrom << 1); col < colTo; col++, k += 2) {
+                    double sq = data[k]*data[k]+data[k+1]*data[k+1];
+                    if ((sq > maxSq) && (dy2+(col-xC)*(col-xC) > radius2) && (maxVal < Math.sqrt(sq))) {
+                        maxSq = sq;
+                        maxVal = Math.sqrt(sq);
+                        maxPos.setLocation(col,row);
+                    }
+                }
             } else {
-                    for (int row = height >> 1; row < height; row++)
-                            for (int col = 0; col < width; col++) {
-                                    curVal = HoloJUtils.modulus(realPixels[row*width+col], 
-                                                                                            complexPixels[row*width+col]); 
-                                    if (
-                                            ( ( (row-xC)*(row-xC) +
-                                            (col-yC)*(col-yC) ) > EXCLUDED_RADIUS*EXCLUDED_RADIUS ) &&
-                                            ( maxValue < curVal )
-                                    ) {
-                                            maxValue = curVal;
-                                            maxPos.setLocation(col,row);	
-                                    }
-
-                            }
+                for (int col = colFrom, k = row*width+colFrom; col < colTo; col++, k++) {
+                    double im = (complexPixels == null) ? 0.0 : complexPixels[k];
+                    double sq = realPixels[k]*realPixels[k]+im*im;
+                    if ((sq > maxSq) && (dy2+(col-xC)*(col-xC) > radius2) && (maxVal < Math.sqrt(sq))) {
+                        maxSq = sq;
+                        maxVal = Math.sqrt(sq);
+                        maxPos.setLocation(col,row);
+                    }
+                }
             }
-            return maxPos;	
-    }// getSidebandCenter()
+        }
+        return maxPos;
+    }// getMaximumModulusPosition()
 	
    /**
      *   Returns an HoloJProcessor containing the selected sideband data.
@@ -1040,41 +1328,24 @@ public class HoloJProcessor {
 	public HoloJProcessor getSideband(Point sideCenter, int radius, int scaleFactor, boolean useButterworth) {
 		if (isSpectrumDomain == false) 
 			throw new ArrayStoreException("getSideband: image is not in Fourier domain.");
-		// determinates maximum area to be copied.
-		int desiredWidth = width / scaleFactor;
-		int desiredHeight = height / scaleFactor;
-		int maxWidth = Math.min(width-sideCenter.x,sideCenter.x);
-		int maxHeight = Math.min(height-sideCenter.y,sideCenter.y);
-		int maxHalfDim = Math.min(maxWidth,maxHeight);
-		int maxDim = maxHalfDim << 1;
-
-		if (maxDim > desiredHeight) maxDim = desiredHeight;
-		else if (maxDim > desiredWidth) maxDim = desiredWidth;
-		
-		maxHalfDim = maxDim >> 1;
-		
-		int starter = sideCenter.x - maxHalfDim + (sideCenter.y - maxHalfDim)*width;
-		int sideSize = maxDim*maxDim;
-		double[] mask = new double[maxDim*maxDim];
-		if (useButterworth == true) {
-			mask = HoloJUtils.butterworthMask(maxDim, maxDim, radius, 0.414);
-		} else {
-			mask = HoloJUtils.circularMask(maxDim, maxDim, radius);
-		}
-		
-		double[] sideRealPix = new double[sideSize];
-		double[] sideComplexPix = new double[sideSize];
-		
-		for ( int j=0; j < maxDim; j++ ) {
-			for (int i = 0; i < maxDim; i++) {
-				int pos = i+j*maxDim;
-				int pos2 = starter+j*width+i;
-				sideRealPix[pos] = mask[pos]*realPixels[pos2];
-				sideComplexPix[pos] = mask[pos]*complexPixels[pos2];
-			}	
+		// masks are cached and only the aperture bounding box is copied, see HoloJSidebandExtractor.
+		int maxDim = HoloJSidebandExtractor.getSidebandSize(width, height, sideCenter, scaleFactor);
+		if (offHeapPixels != null) {
+			// an off-heap spectrum gives an off-heap sideband.
+			DoubleBuffer sideBuffer = HoloJBufferPool.borrowDirect(maxDim*maxDim << 1, true);
+			HoloJSidebandExtractor.extract(offHeapPixels, width, height, sideCenter, radius, scaleFactor, useButterworth, sideBuffer);
+			HoloJProcessor sideband = new HoloJProcessor(maxDim, maxDim, sideBuffer);
+			sideband.ownsPixels = true;
+			return sideband;
 		}
-		HoloJProcessor sideband = new HoloJProcessor(sideRealPix, sideComplexPix, maxDim, maxDim);		
+		double[] sidePix;
+		if (isInterleaved)
+			sidePix = HoloJSidebandExtractor.extract(interleavedPixels, width, height, sideCenter, radius, scaleFactor, useButterworth);
+		else
+			sidePix = HoloJSidebandExtractor.extract(realPixels, complexPixels, width, height, sideCenter, radius, scaleFactor, useButterworth);
+		HoloJProcessor sideband = new HoloJProcessor(maxDim, maxDim, sidePix);
+		// the sideband array comes from HoloJBufferPool.
+		sideband.ownsPixels = true;
 		return sideband;
-				
 	}// getSideband()	
 }// end of class HoloJProcessor
\ No newline at end of file
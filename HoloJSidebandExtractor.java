@@ -0,0 +1,241 @@
+package holoj;
+
+import java.awt.Point;
+import java.nio.DoubleBuffer;
+import java.util.HashMap;
+
+/**
+ * Class HoloJSidebandExtractor copies the sideband of a centered spectrum into a new interleaved
+ * array, multiplied by a circular or Butterworth aperture.
+ * Apertures are computed once per (size, radius, type, c) and cached. Only the bounding box of the
+ * aperture is visited: outside it the circular mask is zero, and the Butterworth mask is below
+ * BUTTERWORTH_CUTOFF, so the sideband is left to zero there.
+ * Double precision sidebands are borrowed from HoloJBufferPool.
+ *
+ * @author Brian Mitchell
+ * @version 1.0
+ */
+public final class HoloJSidebandExtractor {
+
+    /** Aperture half-width used by the reconstruction with Butterworth masks. */
+    public static final double BUTTERWORTH_C = 0.414;
+    /** Butterworth mask values below this are treated as zero. */
+    public static final double BUTTERWORTH_CUTOFF = 1e-9;
+
+    // cache of apertures, keyed by size, radius, type and c.
+    private static final HashMap<String, Aperture> apertures = new HashMap<String, Aperture>();
+
+    private HoloJSidebandExtractor() {
+    }
+
+   /**
+    * Returns the side of the square sideband extracted around sideCenter, as computed by HoloJProcessor.getSideband.
+    *
+    * @param width          spectrum width.
+    * @param height         spectrum height.
+    * @param sideCenter     center of the sideband.
+    * @param scaleFactor    scale factor of final reconstructed image.
+    * @return the sideband side.
+    */
+    public static int getSidebandSize(int width, int height, Point sideCenter, int scaleFactor) {
+        int desiredWidth = width / scaleFactor;
+        int desiredHeight = height / scaleFactor;
+        int maxWidth = Math.min(width-sideCenter.x,sideCenter.x);
+        int maxHeight = Math.min(height-sideCenter.y,sideCenter.y);
+        int maxHalfDim = Math.min(maxWidth,maxHeight);
+        int maxDim = maxHalfDim << 1;
+        if (maxDim > desiredHeight) maxDim = desiredHeight;
+        else if (maxDim > desiredWidth) maxDim = desiredWidth;
+        return maxDim;
+    }
+
+   /**
+    * Extracts the sideband of a spectrum stored in RE1,CO1,RE2,CO2... sequence.
+    *
+    * @param pixels         the interleaved spectrum.
+    * @param width          spectrum width.
+    * @param height         spectrum height.
+    * @param sideCenter     center of the sideband.
+    * @param radius         radius of the aperture.
+    * @param scaleFactor    scale factor of final reconstructed image.
+    * @param useButterworth flag for using soft aperture.
+    * @return the interleaved sideband, of side getSidebandSize().
+    */
+    public static double[] extract(double[] pixels, int width, int height, Point sideCenter, int radius, int scaleFactor, boolean useButterworth) {
+        int maxDim = getSidebandSize(width, height, sideCenter, scaleFactor);
+        double[] sidePix = HoloJBufferPool.borrow(maxDim*maxDim << 1);
+        extract(pixels, 0, width, height, sideCenter, radius, scaleFactor, useButterworth, sidePix, 0);
+        return sidePix;
+    }
+
+   /**
+    * Extracts the sideband of an interleaved spectrum stored from offset on into dest, from destOffset on.
+    * Only the bounding box of the aperture is written: the rest of the sideband must already be zero.
+    *
+    * @param pixels         array holding the interleaved spectrum.
+    * @param offset         index of the real part of the first spectrum pixel.
+    * @param width          spectrum width.
+    * @param height         spectrum height.
+    * @param sideCenter     center of the sideband.
+    * @param radius         radius of the aperture.
+    * @param scaleFactor    scale factor of final reconstructed image.
+    * @param useButterworth flag for using soft aperture.
+    * @param dest           array receiving the interleaved sideband, of side getSidebandSize().
+    * @param destOffset     index of the real part of the first sideband pixel.
+    */
+    public static void extract(double[] pixels, int offset, int width, int height, Point sideCenter, int radius, int scaleFactor,
+                               boolean useButterworth, double[] dest, int destOffset) {
+        int maxDim = getSidebandSize(width, height, sideCenter, scaleFactor);
+        Aperture aperture = getAperture(maxDim, radius, useButterworth, BUTTERWORTH_C);
+        int starter = sideCenter.x - (maxDim >> 1) + (sideCenter.y - (maxDim >> 1))*width;
+        int boxSize = aperture.to-aperture.from;
+        for (int j=aperture.from, m=0; j<aperture.to; j++) {
+            int pos = destOffset+((aperture.from+j*maxDim) << 1);
+            int pos2 = offset+((starter+j*width+aperture.from) << 1);
+            for (int i=0; i<boxSize; i++, m++, pos+=2, pos2+=2) {
+                dest[pos] = aperture.mask[m]*pixels[pos2];
+                dest[pos+1] = aperture.mask[m]*pixels[pos2+1];
+            }
+        }
+    }
+
+   /**
+    * Extracts the sideband of an interleaved spectrum held in a buffer, such as the direct buffer of an
+    * off-heap HoloJProcessor, into dest, one aperture row at a time.
+    * Only the bounding box of the aperture is written: the rest of the sideband must already be zero.
+    *
+    * @param pixels         the interleaved spectrum.
+    * @param width          spectrum width.
+    * @param height         spectrum height.
+    * @param sideCenter     center of the sideband.
+    * @param radius         radius of the aperture.
+    * @param scaleFactor    scale factor of final reconstructed image.
+    * @param useButterworth flag for using soft aperture.
+    * @param dest           buffer receiving the interleaved sideband, of side getSidebandSize().
+    */
+    public static void extract(DoubleBuffer pixels, int width, int height, Point sideCenter, int radius, int scaleFactor,
+                               boolean useButterworth, DoubleBuffer dest) {
+        int maxDim = getSidebandSize(width, height, sideCenter, scaleFactor);
+        Aperture aperture = getAperture(maxDim, radius, useButterworth, BUTTERWORTH_C);
+        int starter = sideCenter.x - (maxDim >> 1) + (sideCenter.y - (maxDim >> 1))*width;
+        int boxSize = aperture.to-aperture.from;
+        double[] line = new double[boxSize << 1];
+        for (int j=aperture.from, m=0; j<aperture.to; j++) {
+            HoloJBufferPool.get(pixels, (starter+j*width+aperture.from) << 1, line, 0, boxSize << 1);
+            for (int i=0, pos=0; i<boxSize; i++, m++, pos+=2) {
+                line[pos] = aperture.mask[m]*line[pos];
+                line[pos+1] = aperture.mask[m]*line[pos+1];
+            }
+            HoloJBufferPool.put(dest, (aperture.from+j*maxDim) << 1, line, 0, boxSize << 1);
+        }
+    }
+
+   /**
+    * Extracts the sideband of a spectrum stored in separate real and imaginary arrays.
+    *
+    * @param real           real part of the spectrum.
+    * @param complex        imaginary part of the spectrum.
+    * @param width          spectrum width.
+    * @param height         spectrum height.
+    * @param sideCenter     center of the sideband.
+    * @param radius         radius of the aperture.
+    * @param scaleFactor    scale factor of final reconstructed image.
+    * @param useButterworth flag for using soft aperture.
+    * @return the interleaved sideband, of side getSidebandSize().
+    */
+    public static double[] extract(double[] real, double[] complex, int width, int height, Point sideCenter, int radius, int scaleFactor, boolean useButterworth) {
+        int maxDim = getSidebandSize(width, height, sideCenter, scaleFactor);
+        Aperture aperture = getAperture(maxDim, radius, useButterworth, BUTTERWORTH_C);
+        int starter = sideCenter.x - (maxDim >> 1) + (sideCenter.y - (maxDim >> 1))*width;
+        double[] sidePix = HoloJBufferPool.borrow(maxDim*maxDim << 1);
+        int boxSize = aperture.to-aperture.from;
+        for (int j=aperture.from, m=0; j<aperture.to; j++) {
+            int pos = (aperture.from+j*maxDim) << 1;
+            int pos2 = starter+j*width+aperture.from;
+            for (int i=0; i<boxSize; i++, m++, pos+=2, pos2++) {
+                sidePix[pos] = aperture.mask[m]*real[pos2];
+                if (complex != null) sidePix[pos+1] = aperture.mask[m]*complex[pos2];
+            }
+        }
+        return sidePix;
+    }
+
+   /**
+    * Extracts the sideband of a single precision spectrum stored in RE1,CO1,RE2,CO2... sequence.
+    *
+    * @param pixels         the interleaved spectrum.
+    * @param width          spectrum width.
+    * @param height         spectrum height.
+    * @param sideCenter     center of the sideband.
+    * @param radius         radius of the aperture.
+    * @param scaleFactor    scale factor of final reconstructed image.
+    * @param useButterworth flag for using soft aperture.
+    * @return the interleaved sideband, of side getSidebandSize().
+    */
+    public static float[] extract(float[] pixels, int width, int height, Point sideCenter, int radius, int scaleFactor, boolean useButterworth) {
+        int maxDim = getSidebandSize(width, height, sideCenter, scaleFactor);
+        Aperture aperture = getAperture(maxDim, radius, useButterworth, BUTTERWORTH_C);
+        int starter = sideCenter.x - (maxDim >> 1) + (sideCenter.y - (maxDim >> 1))*width;
+        float[] sidePix = new float[maxDim*maxDim << 1];
+        int boxSize = aperture.to-aperture.from;
+        for (int j=aperture.from, m=0; j<aperture.to; j++) {
+            int pos = (aperture.from+j*maxDim) << 1;
+            int pos2 = (starter+j*width+aperture.from) << 1;
+            for (int i=0; i<boxSize; i++, m++, pos+=2, pos2+=2) {
+                sidePix[pos] = (float)(aperture.mask[m]*pixels[pos2]);
+                sidePix[pos+1] = (float)(aperture.mask[m]*pixels[pos2+1]);
+            }
+        }
+        return sidePix;
+    }
+
+    private static synchronized Aperture getAperture(int size, int radius, boolean useButterworth, double c) {
+        String key = size+":"+radius+":"+(useButterworth ? "b"+Double.doubleToLongBits(c) : "c");
+        Aperture aperture = apertures.get(key);
+        if (aperture == null) {
+            aperture = new Aperture(size, radius, useButterworth, c);
+            apertures.put(key, aperture);
+        }
+        return aperture;
+    }
+
+   /**
+    * Removes all cached apertures.
+    */
+    public static synchronized void clearCache() {
+        apertures.clear();
+    }
+
+   /**
+    * The part of a mask of HoloJUtils.circularMask or HoloJUtils.butterworthMask
+    * inside the square [from, to) x [from, to).
+    */
+    private static final class Aperture {
+        final int from;
+        final int to;
+        final double[] mask;
+
+        Aperture(int size, int radius, boolean useButterworth, double c) {
+            int center = size >> 1;
+            int half;
+            if (useButterworth) {
+                // 1/(1+c*(r^2/radius^2)^8) < cutoff beyond this distance.
+                half = (int)Math.ceil(radius*Math.pow((1.0/BUTTERWORTH_CUTOFF-1.0)/c, 1.0/16));
+            } else {
+                half = radius;
+            }
+            from = Math.max(0, center-half);
+            to = Math.min(size, center+half+1);
+            int boxSize = Math.max(0, to-from);
+            mask = new double[boxSize*boxSize];
+            for (int j=from, m=0; j<to; j++)
+                for (int i=from; i<to; i++, m++) {
+                    int rad2 = (i-center)*(i-center)+(j-center)*(j-center);
+                    if (useButterworth)
+                        mask[m] = 1.0/(1+c*Math.pow(((double)rad2/(radius * radius)),8));
+                    else
+                        mask[m] = (rad2 < radius*radius) ? 1.0 : 0.0;
+                }
+        }
+    }
+}
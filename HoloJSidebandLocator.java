@@ -0,0 +1,308 @@
+package holoj;
+
+import ij.gui.Roi;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.geom.Point2D;
+import java.nio.DoubleBuffer;
+
+/**
+ * Class HoloJSidebandLocator finds the sideband center of a centered spectrum with sub-pixel accuracy.
+ * The search is a single full resolution pass over the storage of the spectrum, comparing squared
+ * magnitudes, so no square root and no accessor call is made per pixel, and a peak one pixel wide
+ * cannot be missed. The integer peak is then refined by interpolation of the complex spectrum,
+ * or by a parabolic or centroid fit of the magnitudes.
+ * The fractional part of the center leaves a linear phase ramp on the reconstructed field,
+ * which removeTilt() takes away.
+ *
+ * @author Brian Mitchell
+ * @version 1.0
+ */
+public final class HoloJSidebandLocator {
+
+    /** Refines the peak with a parabola through the magnitudes of its neighbours, along each axis. */
+    public static final int PARABOLIC = 0;
+    /** Refines the peak with the power weighted centroid of its 3x3 neighbourhood. */
+    public static final int CENTROID = 1;
+    /**
+     * Refines the peak from the complex values of its neighbours, (X[k-1]-X[k+1])/(2X[k]-X[k-1]-X[k+1]) along each axis.
+     * Exact for a pure carrier, whose peak is a sampled Dirichlet kernel; magnitude fits are biased towards the integer position.
+     */
+    public static final int SPECTRAL = 2;
+
+    // radius of the excluded region around the origin of the spectrum, as in getSidebandCenter.
+    private static final int EXCLUDED_RADIUS = 20;
+
+    private HoloJSidebandLocator() {
+    }
+
+   /**
+    * Finds the sideband center in one half of the spectrum, excluding the region around the origin,
+    * as HoloJProcessor.getSidebandCenter does.
+    *
+    * @param spectrum   the spectrum, in Fourier domain.
+    * @param side       side of the spectrum where to look for the maximum.
+    * @return the sub-pixel sideband center.
+    */
+    public static Point2D.Double locate(HoloJProcessor spectrum, int side) {
+        int width = spectrum.getWidth();
+        int height = spectrum.getHeight();
+        Rectangle bounds;
+        if (side >= 0) bounds = new Rectangle(0, 0, width, height >> 1);
+        else bounds = new Rectangle(0, height >> 1, width, height-(height >> 1));
+        return refine(spectrum, findPeak(spectrum, bounds, true), SPECTRAL);
+    }
+
+   /**
+    * Finds the sideband center inside the bounds of selection, as HoloJUtils.getMaximumPosition(processor, selection) does.
+    *
+    * @param spectrum   the spectrum, in Fourier domain.
+    * @param selection  the selected region.
+    * @return the sub-pixel sideband center.
+    */
+    public static Point2D.Double locate(HoloJProcessor spectrum, Roi selection) {
+        Rectangle bounds = selection.getBounds();
+        // the bounds are inclusive in getMaximumPosition.
+        bounds = new Rectangle(bounds.x, bounds.y, bounds.width+1, bounds.height+1);
+        return refine(spectrum, findPeak(spectrum, bounds, false), SPECTRAL);
+    }
+
+   /**
+    * Returns the position of the maximum magnitude inside bounds.
+    *
+    * @param spectrum       the spectrum, in Fourier domain.
+    * @param bounds         the searched region, clipped to the image.
+    * @param excludeCenter  true to skip the pixels within 20 pixels of the origin of the spectrum.
+    * @return the integer peak position.
+    */
+    public static Point findPeak(HoloJProcessor spectrum, Rectangle bounds, boolean excludeCenter) {
+        if (spectrum.isSpectrumDomain() == false)
+            throw new ArrayStoreException("findPeak: image is not in Fourier domain.");
+        Power power = new Power(spectrum);
+        Rectangle r = bounds.intersection(new Rectangle(0, 0, power.width, power.height));
+        if (r.isEmpty())
+            throw new IndexOutOfBoundsException("findPeak: region is outside the image.");
+        return power.max(r, excludeCenter);
+    }
+
+   /**
+    * Returns the sub-pixel position of the peak at position.
+    *
+    * @param spectrum   the spectrum, in Fourier domain.
+    * @param peak       integer position of the peak.
+    * @param fit        SPECTRAL, PARABOLIC or CENTROID.
+    * @return the refined position.
+    */
+    public static Point2D.Double refine(HoloJProcessor spectrum, Point peak, int fit) {
+        Power power = new Power(spectrum);
+        int x = peak.x;
+        int y = peak.y;
+        if ((x < 1) || (y < 1) || (x >= power.width-1) || (y >= power.height-1))
+            return new Point2D.Double(x, y);
+        if (fit == CENTROID) {
+            double sum = 0.0;
+            double sumX = 0.0;
+            double sumY = 0.0;
+            for (int j=-1; j<=1; j++)
+                for (int i=-1; i<=1; i++) {
+                    double p = power.get(x+i, y+j);
+                    sum += p;
+                    sumX += i*p;
+                    sumY += j*p;
+                }
+            if (sum <= 0) return new Point2D.Double(x, y);
+            return new Point2D.Double(x+sumX/sum, y+sumY/sum);
+        }
+        if (fit == SPECTRAL) {
+            int pos = y*power.width+x;
+            return new Point2D.Double(x+ratio(spectrum, pos-1, pos, pos+1),
+                                      y+ratio(spectrum, pos-power.width, pos, pos+power.width));
+        }
+        double center = Math.sqrt(power.get(x, y));
+        return new Point2D.Double(x+vertex(Math.sqrt(power.get(x-1, y)), center, Math.sqrt(power.get(x+1, y))),
+                                  y+vertex(Math.sqrt(power.get(x, y-1)), center, Math.sqrt(power.get(x, y+1))));
+    }
+
+    // offset of the peak from the complex values before, at and after it.
+    private static double ratio(HoloJProcessor spectrum, int before, int at, int after) {
+        double nr = spectrum.getReal(before)-spectrum.getReal(after);
+        double ni = spectrum.getComplex(before)-spectrum.getComplex(after);
+        double dr = 2*spectrum.getReal(at)-spectrum.getReal(before)-spectrum.getReal(after);
+        double di = 2*spectrum.getComplex(at)-spectrum.getComplex(before)-spectrum.getComplex(after);
+        double den = dr*dr+di*di;
+        if (den == 0) return 0.0;
+        return Math.max(-0.5, Math.min(0.5, (nr*dr+ni*di)/den));
+    }
+
+    // offset of the vertex of the parabola through (-1,left), (0,center), (1,right).
+    private static double vertex(double left, double center, double right) {
+        double den = left-2*center+right;
+        if (den >= 0) return 0.0;
+        double offset = 0.5*(left-right)/den;
+        return Math.max(-0.5, Math.min(0.5, offset));
+    }
+
+   /**
+    * Removes the phase ramp left on a field reconstructed from a sideband extracted at an integer
+    * center, when the true center is offset by (offsetX, offsetY) spectrum pixels.
+    *
+    * @param field      the reconstructed field, modified in place.
+    * @param offsetX    sub-pixel center minus integer center, along X.
+    * @param offsetY    sub-pixel center minus integer center, along Y.
+    */
+    public static void removeTilt(HoloJProcessor field, double offsetX, double offsetY) {
+        int width = field.getWidth();
+        int height = field.getHeight();
+        double[] xReal = new double[width];
+        double[] xComplex = new double[width];
+        for (int col=0; col<width; col++) {
+            double phase = 2*Math.PI*offsetX*col/width;
+            xReal[col] = Math.cos(phase);
+            xComplex[col] = Math.sin(phase);
+        }
+        // off-heap fields are processed a row at a time in a heap copy.
+        DoubleBuffer buffer = field.isOffHeap() ? field.bufferStorage() : null;
+        double[] pixels = (buffer != null) ? new double[width << 1] : field.interleavedStorage();
+        for (int row=0, pos=0; row<height; row++) {
+            double phase = 2*Math.PI*offsetY*row/height;
+            double yr = Math.cos(phase);
+            double yi = Math.sin(phase);
+            if (buffer != null) {
+                HoloJBufferPool.get(buffer, row*width << 1, pixels, 0, width << 1);
+                pos = 0;
+            }
+            for (int col=0; col<width; col++, pos+=2) {
+                double tr = xReal[col]*yr - xComplex[col]*yi;
+                double ti = xReal[col]*yi + xComplex[col]*yr;
+                double re = pixels[pos];
+                double im = pixels[pos+1];
+                pixels[pos] = re*tr - im*ti;
+                pixels[pos+1] = re*ti + im*tr;
+            }
+            if (buffer != null) HoloJBufferPool.put(buffer, row*width << 1, pixels, 0, width << 1);
+        }
+        field.setComplexOrigin();
+    }
+
+   /**
+    * Squared magnitudes of a spectrum, read straight from its storage.
+    */
+    private static final class Power {
+        final int width;
+        final int height;
+        private final double[] interleaved;
+        private final double[] real;
+        private final double[] complex;
+        private final DoubleBuffer buffer;
+        // row copy of off-heap spectra, and the peak found so far by max().
+        private double[] line;
+        private double peakValue;
+        private int peakCol;
+        private int peakRow;
+
+        Power(HoloJProcessor spectrum) {
+            width = spectrum.getWidth();
+            height = spectrum.getHeight();
+            buffer = spectrum.isOffHeap() ? spectrum.bufferStorage() : null;
+            if (buffer != null) {
+                interleaved = null;
+                real = null;
+                complex = null;
+            } else if (spectrum.isInterleaved()) {
+                interleaved = spectrum.interleavedStorage();
+                real = null;
+                complex = null;
+            } else {
+                interleaved = null;
+                real = spectrum.realStorage();
+                complex = spectrum.complexStorage();
+            }
+        }
+
+        double get(int x, int y) {
+            return power(y*width+x);
+        }
+
+        private double power(int pos) {
+            if (buffer != null) {
+                double re = buffer.get(2*pos);
+                double im = buffer.get(2*pos+1);
+                return re*re+im*im;
+            }
+            if (interleaved != null) {
+                double re = interleaved[2*pos];
+                double im = interleaved[2*pos+1];
+                return re*re+im*im;
+            }
+            double im = (complex != null) ? complex[pos] : 0.0;
+            return real[pos]*real[pos]+im*im;
+        }
+
+        // compares the pixels of row from column from to column to-1 with the peak found so far.
+        private void scan(int row, int from, int to) {
+            if (from >= to) return;
+            int base = row*width;
+            double[] values = interleaved;
+            int offset = base << 1;
+            if (buffer != null) {
+                // off-heap spectra are read a row at a time into a heap copy.
+                HoloJBufferPool.get(buffer, (base+from) << 1, line, 0, (to-from) << 1);
+                values = line;
+                offset = -(from << 1);
+            }
+            if (values != null) {
+                for (int col=from, pos=offset+(from << 1); col<to; col++, pos+=2) {
+                    double value = values[pos]*values[pos]+values[pos+1]*values[pos+1];
+                    if (value > peakValue) {
+                        peakValue = value;
+                        peakCol = col;
+                        peakRow = row;
+                    }
+                }
+            } else if (complex != null) {
+                for (int col=from, pos=base+from; col<to; col++, pos++) {
+                    double value = real[pos]*real[pos]+complex[pos]*complex[pos];
+                    if (value > peakValue) {
+                        peakValue = value;
+                        peakCol = col;
+                        peakRow = row;
+                    }
+                }
+            } else {
+                for (int col=from, pos=base+from; col<to; col++, pos++) {
+                    double value = real[pos]*real[pos];
+                    if (value > peakValue) {
+                        peakValue = value;
+                        peakCol = col;
+                        peakRow = row;
+                    }
+                }
+            }
+        }
+
+        // single pass over r at full resolution; the excluded disk is cut out of each row, not tested per pixel.
+        Point max(Rectangle r, boolean excludeCenter) {
+            int colEnd = r.x+r.width;
+            int radius2 = EXCLUDED_RADIUS*EXCLUDED_RADIUS;
+            if (buffer != null) line = new double[r.width << 1];
+            peakValue = Double.NEGATIVE_INFINITY;
+            peakCol = r.x;
+            peakRow = r.y;
+            for (int row=r.y; row<r.y+r.height; row++) {
+                int dy = row-(height >> 1);
+                if (!excludeCenter || (dy*dy > radius2)) {
+                    scan(row, r.x, colEnd);
+                    continue;
+                }
+                int half = (int)Math.sqrt(radius2-dy*dy);
+                while ((half+1)*(half+1)+dy*dy <= radius2) half++;
+                while (half*half+dy*dy > radius2) half--;
+                int skipFrom = (width >> 1)-half;
+                int skipTo = (width >> 1)+half+1;
+                scan(row, r.x, Math.min(skipFrom, colEnd));
+                scan(row, Math.max(skipTo, r.x), colEnd);
+            }
+            return new Point(peakCol, peakRow);
+        }
+    }
+}
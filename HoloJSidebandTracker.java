@@ -0,0 +1,103 @@
+package holoj;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.geom.Point2D;
+
+/**
+ * Class HoloJSidebandTracker follows the sideband center along a series of spectra, such as the frames
+ * of a time-lapse whose carrier frequency slowly drifts. Each spectrum is searched only in a small window
+ * around the previous center; the whole half plane is scanned again only on the first spectrum, or when
+ * the peak is lost: found on the border of the window, or much weaker than on the previous spectrum.
+ *
+ * @author Brian Mitchell
+ * @version 1.0
+ */
+public final class HoloJSidebandTracker {
+
+    // a peak weaker than this fraction of the previous one is considered lost. A carrier drifting from
+    // a bin to half way between bins along both axes keeps (2/PI)^4 = 0.16 of its peak power.
+    private static final double LOST_RATIO = 0.1;
+
+    private final int side;
+    private final int window;
+    private Point2D.Double center = null;
+    private double peakPower = 0.0;
+    private int fullScans = 0;
+
+   /**
+    * Creates a tracker searching in one half of the spectra.
+    *
+    * @param side       side of the spectrum where to look for the sideband, as in getSidebandCenter.
+    * @param window     half side of the window searched around the previous center.
+    */
+    public HoloJSidebandTracker(int side, int window) {
+        if (window < 1)
+            throw new IllegalArgumentException("Constructor: window < 1.");
+        this.side = side;
+        this.window = window;
+    } // Constructor (side, window)
+
+   /**
+    * Returns the sub-pixel sideband center of spectrum, and remembers it for the next call.
+    *
+    * @param spectrum   the spectrum, in Fourier domain.
+    * @return the sub-pixel sideband center.
+    */
+    public synchronized Point2D.Double track(HoloJProcessor spectrum) {
+        Point peak = null;
+        if (center != null) {
+            int x = (int)Math.round(center.x);
+            int y = (int)Math.round(center.y);
+            Rectangle bounds = new Rectangle(x-window, y-window, 2*window+1, 2*window+1);
+            peak = HoloJSidebandLocator.findPeak(spectrum, bounds, true);
+            boolean onBorder = (Math.abs(peak.x-x) == window) || (Math.abs(peak.y-y) == window);
+            if (onBorder || (power(spectrum, peak) < LOST_RATIO*peakPower)) peak = null;
+        }
+        if (peak == null) {
+            fullScans++;
+            int width = spectrum.getWidth();
+            int height = spectrum.getHeight();
+            Rectangle bounds;
+            if (side >= 0) bounds = new Rectangle(0, 0, width, height >> 1);
+            else bounds = new Rectangle(0, height >> 1, width, height-(height >> 1));
+            peak = HoloJSidebandLocator.findPeak(spectrum, bounds, true);
+        }
+        peakPower = power(spectrum, peak);
+        center = HoloJSidebandLocator.refine(spectrum, peak, HoloJSidebandLocator.SPECTRAL);
+        return new Point2D.Double(center.x, center.y);
+    }
+
+    private static double power(HoloJProcessor spectrum, Point peak) {
+        int pos = peak.y*spectrum.getWidth()+peak.x;
+        double re = spectrum.getReal(pos);
+        double im = spectrum.getComplex(pos);
+        return re*re+im*im;
+    }
+
+   /**
+    * Forgets the previous center, so that the next spectrum is fully scanned.
+    */
+    public synchronized void reset() {
+        center = null;
+        peakPower = 0.0;
+    }
+
+   /**
+    *	Returns the last center found, or null before the first spectrum.
+    *
+    *	@return the sub-pixel sideband center.
+    */
+    public synchronized Point2D.Double getCenter() {
+        return (center == null) ? null : new Point2D.Double(center.x, center.y);
+    }
+
+   /**
+    *	Returns the number of spectra that needed a scan of the whole half plane.
+    *
+    *	@return the number of full scans.
+    */
+    public synchronized int getFullScans() {
+        return fullScans;
+    }
+}
@@ -0,0 +1,440 @@
+package holoj;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.measure.Calibration;
+import ij.process.FloatProcessor;
+import java.awt.Point;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Class HoloJStackProcessor holds a series of same-size complex frames, such as the slices of a
+ * time-lapse hologram stack, in one contiguous array: frame f is stored in RE1,CO1,RE2,CO2... sequence
+ * from index f*2*width*height on. The whole series is transformed, filtered and propagated at once,
+ * with the plans, apertures and transfer functions shared by all frames, instead of one HoloJProcessor
+ * per slice. Transforms are split by line across all frames (see HoloJFFTPlan.transform(data, frames))
+ * and the other operations by frame, so all threads of the pool of HoloJFFTPlan are busy even for
+ * small frames. The array holds at most Integer.MAX_VALUE values, i.e. frames*width*height < 2^30.
+ *
+ * @author Brian Mitchell
+ * @version 1.0
+ */
+public final class HoloJStackProcessor {
+
+    // operations of FrameTask.
+    private static final int SIDEBAND = 0;
+    private static final int TRANSFER = 1;
+    private static final int AMPLITUDE = 2;
+    private static final int PHASE = 3;
+    private static final int REAL_FFT = 4;
+
+    private final int width;
+    private final int height;
+    private final int frames;
+    private final double[] pixels;
+    private boolean isSpectrumDomain = false;
+    // frames hold real values only, as read from an ImageStack.
+    private boolean isRealOrigin = false;
+    private Calibration cal = null;
+
+   /**
+    * Creates a stack processor with the slices of stack as real parts, imaginary parts set to zero.
+    *
+    * @param stack      stack of 8-bit, 16-bit or 32-bit slices.
+    */
+    public HoloJStackProcessor(ImageStack stack) {
+        this(stack.getWidth(), stack.getHeight(), stack.getSize());
+        int size = width*height;
+        for (int f=0; f<frames; f++) {
+            Object slice = stack.getPixels(f+1);
+            int pos = f*size << 1;
+            if (slice instanceof byte[]) {
+                byte[] bsrc = (byte[])slice;
+                for (int k=0; k<size; k++, pos+=2)
+                    pixels[pos] = (double)(bsrc[k] & 0xFF);
+            } else if (slice instanceof short[]) {
+                short[] ssrc = (short[])slice;
+                for (int k=0; k<size; k++, pos+=2)
+                    pixels[pos] = (double)(ssrc[k] & 0xFFFF);
+            } else if (slice instanceof float[]) {
+                float[] fsrc = (float[])slice;
+                for (int k=0; k<size; k++, pos+=2)
+                    pixels[pos] = (double)fsrc[k];
+            } else {
+                throw new ArrayStoreException("Constructor: Unexpected image type.");
+            }
+        }
+        isRealOrigin = true;
+    } // Constructor (ImageStack stack)
+
+   /**
+    * Creates a stack processor of frames zero valued frames.
+    *
+    * @param width      frame width.
+    * @param height     frame height.
+    * @param frames     number of frames.
+    */
+    public HoloJStackProcessor(int width, int height, int frames) {
+        this(width, height, frames, allocate(width, height, frames));
+    } // Constructor (width, height, frames)
+
+   /**
+    * Creates a stack processor on an existing array, which is used, not copied.
+    *
+    * @param width      frame width.
+    * @param height     frame height.
+    * @param frames     number of frames.
+    * @param pixels     frames one after the other, each in RE1,CO1,RE2,CO2... sequence.
+    */
+    public HoloJStackProcessor(int width, int height, int frames, double[] pixels) {
+        if (width < 1)
+            throw new ArrayStoreException("Constructor: width < 1.");
+        if (height < 1)
+            throw new ArrayStoreException("Constructor: height < 1.");
+        if (frames < 1)
+            throw new ArrayStoreException("Constructor: frames < 1.");
+        if (pixels.length != ((long)width*height*frames << 1))
+            throw new ArrayStoreException("Constructor: pixels.length != 2*width*height*frames.");
+        this.width = width;
+        this.height = height;
+        this.frames = frames;
+        this.pixels = pixels;
+    } // Constructor (width, height, frames, pixels)
+
+    private static double[] allocate(int width, int height, int frames) {
+        long length = (long)width*height*frames << 1;
+        if ((width < 1) || (height < 1) || (frames < 1))
+            throw new ArrayStoreException("Constructor: width, height and frames must be positive.");
+        if (length > Integer.MAX_VALUE)
+            throw new ArrayStoreException("Constructor: frames do not fit in one array.");
+        return new double[(int)length];
+    }
+
+   /**
+    * Performs the forward Fast Fourier Transform of all frames, giving centered spectra.
+    * Real frames, as read from an ImageStack, use HoloJFFTPlan.realToComplex frame by frame, with frames
+    * running in parallel; complex frames are transformed as one batch.
+    */
+    public void doFFT() {
+        HoloJFFTPlan plan = HoloJFFTPlan.getPlan(width, height, 1);
+        if (isRealOrigin) {
+            FrameTask task = new FrameTask(REAL_FFT, 0, frames);
+            task.plan = plan;
+            run(task);
+            isRealOrigin = false;
+        } else {
+            plan.transform(pixels, frames);
+        }
+        isSpectrumDomain = true;
+    }
+
+   /**
+    * Performs the backward Fast Fourier Transform of all frames.
+    */
+    public void doInverseFFT() {
+        HoloJFFTPlan.getPlan(width, height, -1).transform(pixels, frames);
+        isSpectrumDomain = false;
+    }
+
+   /**
+    * Returns the sideband of every frame, as HoloJProcessor.getSideband does for one image.
+    * The aperture is computed once for all frames.
+    *
+    * @param sideCenter     center of the sideband.
+    * @param radius         radius of the aperture.
+    * @param scaleFactor    scale factor of final reconstructed image.
+    * @param useButterworth flag for using soft aperture.
+    * @return a new stack processor with the sidebands, in the Fourier domain.
+    */
+    public HoloJStackProcessor getSideband(Point sideCenter, int radius, int scaleFactor, boolean useButterworth) {
+        if (!isSpectrumDomain)
+            throw new ArrayStoreException("getSideband: stack is not in Fourier domain.");
+        int maxDim = HoloJSidebandExtractor.getSidebandSize(width, height, sideCenter, scaleFactor);
+        HoloJStackProcessor sideband = new HoloJStackProcessor(maxDim, maxDim, frames);
+        FrameTask task = new FrameTask(SIDEBAND, 0, frames);
+        task.sideband = sideband;
+        task.sideCenter = sideCenter;
+        task.radius = radius;
+        task.scaleFactor = scaleFactor;
+        task.useButterworth = useButterworth;
+        run(task);
+        sideband.isSpectrumDomain = true;
+        sideband.cal = cal;
+        return sideband;
+    }
+
+   /**
+    * Multiplies the spectrum of every frame by a transfer function of the same size.
+    *
+    * @param transfer   the transfer function.
+    */
+    public void applyTransferFunction(HoloJTransfer transfer) {
+        if ((transfer.getWidth() != width) || (transfer.getHeight() != height))
+            throw new IndexOutOfBoundsException("applyTransferFunction: sizes must be equal.");
+        FrameTask task = new FrameTask(TRANSFER, 0, frames);
+        task.transfer = transfer;
+        run(task);
+    }
+
+   /**
+    * Propagates every frame by distance, as HoloJUtils.propogatefunc does for one field.
+    * The transfer function is computed once for all frames.
+    *
+    * @param dx             pixel size along X.
+    * @param dy             pixel size along Y.
+    * @param distance       propagation distance.
+    * @param wavelength     wavelength of the illumination.
+    * @param method         HoloJUtils.FRESNEL or HoloJUtils.ANGULAR_SPECTRUM.
+    */
+    public void propagate(double dx, double dy, double distance, double wavelength, int method) {
+        HoloJTransfer transfer = HoloJUtils.transferFunction(width, height, dx, dy, distance, wavelength, method);
+        doFFT();
+        applyTransferFunction(transfer);
+        doInverseFFT();
+    }
+
+    private void run(FrameTask task) {
+        ForkJoinPool fjp = HoloJFFTPlan.getPool();
+        if (fjp == null) task.compute();
+        else fjp.invoke(task);
+    }
+
+   /**
+    * Returns a copy of one frame.
+    *
+    * @param index      frame index, from 0.
+    * @return a new HoloJProcessor with the frame, in interleaved storage.
+    */
+    public HoloJProcessor getFrame(int index) {
+        checkIndex(index, "getFrame");
+        int length = width*height << 1;
+        double[] frame = new double[length];
+        System.arraycopy(pixels, index*length, frame, 0, length);
+        HoloJProcessor result = new HoloJProcessor(width, height, frame);
+        result.setComplexOrigin();
+        if (cal != null) result.setCalibration(cal);
+        return result;
+    }
+
+   /**
+    * Copies image into one frame.
+    *
+    * @param index      frame index, from 0.
+    * @param image      the HoloJProcessor to copy, of the frame size.
+    */
+    public void setFrame(int index, HoloJProcessor image) {
+        checkIndex(index, "setFrame");
+        if ((image.getWidth() != width) || (image.getHeight() != height))
+            throw new IndexOutOfBoundsException("setFrame: sizes must be equal.");
+        int size = width*height;
+        int pos = index*size << 1;
+        isRealOrigin = false;
+        if (image.isInterleaved()) {
+            System.arraycopy(image.interleavedStorage(), 0, pixels, pos, size << 1);
+        } else {
+            for (int k=0; k<size; k++, pos+=2) {
+                pixels[pos] = image.getReal(k);
+                pixels[pos+1] = image.getComplex(k);
+            }
+        }
+    }
+
+    private void checkIndex(int index, String name) {
+        if ((index < 0) || (index >= frames))
+            throw new IndexOutOfBoundsException(name+": index out of range.");
+    }
+
+   /**
+    * Creates the amplitude stack of the frames, one slice per frame.
+    *
+    * @return the amplitude stack.
+    */
+    public ImageStack createAmplitudeStack() {
+        return createStack(AMPLITUDE);
+    }
+
+   /**
+    * Creates the phase stack of the frames, one slice per frame, as HoloJProcessor.createPhaseProcessor does.
+    *
+    * @return the phase stack.
+    */
+    public ImageStack createPhaseStack() {
+        return createStack(PHASE);
+    }
+
+    private ImageStack createStack(int operation) {
+        FrameTask task = new FrameTask(operation, 0, frames);
+        task.slices = new FloatProcessor[frames];
+        run(task);
+        ImageStack stack = new ImageStack(width, height);
+        for (int f=0; f<frames; f++)
+            stack.addSlice("frame "+(f+1), task.slices[f]);
+        return stack;
+    }
+
+   /**
+    * Creates and show the amplitude stack of the frames.
+    *
+    * @param title      title of the displayed stack.
+    */
+    public void showAmplitude(String title) {
+        show(title, createAmplitudeStack());
+    }
+
+   /**
+    * Creates and show the phase stack of the frames.
+    *
+    * @param title      title of the displayed stack.
+    */
+    public void showPhase(String title) {
+        show(title, createPhaseStack());
+    }
+
+    private void show(String title, ImageStack stack) {
+        ImagePlus imp = new ImagePlus(title, stack);
+        if (cal != null) imp.setCalibration(cal);
+        imp.show();
+    }
+
+   /**
+    * Runs one operation on a range of frames, splitting the range down to single frames.
+    */
+    private final class FrameTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int operation;
+        private final int from;
+        private final int to;
+        // arguments of the operation, shared by the subtasks.
+        HoloJStackProcessor sideband;
+        Point sideCenter;
+        int radius;
+        int scaleFactor;
+        boolean useButterworth;
+        HoloJTransfer transfer;
+        HoloJFFTPlan plan;
+        FloatProcessor[] slices;
+
+        FrameTask(int operation, int from, int to) {
+            this.operation = operation;
+            this.from = from;
+            this.to = to;
+        }
+
+        private FrameTask split(int from, int to) {
+            FrameTask task = new FrameTask(operation, from, to);
+            task.sideband = sideband;
+            task.sideCenter = sideCenter;
+            task.radius = radius;
+            task.scaleFactor = scaleFactor;
+            task.useButterworth = useButterworth;
+            task.transfer = transfer;
+            task.plan = plan;
+            task.slices = slices;
+            return task;
+        }
+
+        protected void compute() {
+            if (to-from > 1 && HoloJFFTPlan.getPool() != null) {
+                int middle = (from+to) >>> 1;
+                invokeAll(split(from, middle), split(middle, to));
+                return;
+            }
+            int length = width*height << 1;
+            for (int f=from; f<to; f++) {
+                int offset = f*length;
+                switch (operation) {
+                    case SIDEBAND:
+                        int sideLength = sideband.width*sideband.height << 1;
+                        HoloJSidebandExtractor.extract(pixels, offset, width, height, sideCenter, radius, scaleFactor,
+                                                       useButterworth, sideband.pixels, f*sideLength);
+                        break;
+                    case TRANSFER:
+                        transfer.apply(pixels, offset);
+                        break;
+                    case REAL_FFT:
+                        plan.realToComplex(pixels, offset, 2, pixels, offset);
+                        break;
+                    default:
+                        slices[f] = createSlice(offset, operation == PHASE);
+                }
+            }
+        }
+    }
+
+    // amplitude or phase of the frame stored from offset on.
+    private FloatProcessor createSlice(int offset, boolean phase) {
+        int size = width*height;
+        float[] fsrc = new float[size];
+        for (int k=0, pos=offset; k<size; k++, pos+=2) {
+            if (phase) fsrc[k] = (float)(Math.atan2(pixels[pos], pixels[pos+1])+Math.PI);
+            else fsrc[k] = (float)(HoloJUtils.modulus(pixels[pos], pixels[pos+1]));
+        }
+        FloatProcessor fp = new FloatProcessor(width, height, fsrc, null);
+        if (phase) HoloJUtils.resetMin(fp);
+        return fp;
+    }
+
+   /**
+    *	Returns the frames, one after the other, in RE1,CO1,RE2,CO2... sequence.
+    *
+    *	@return the pixels array, not a copy.
+    */
+    public double[] getPixelsArray() {
+        return pixels;
+    }
+
+   /**
+    *	Returns true if the frames have been Fourier transformed.
+    *
+    *	@return true in the Fourier domain.
+    */
+    public boolean isSpectrumDomain() {
+        return isSpectrumDomain;
+    }
+
+   /**
+    * Set the calibration of the frames to new calibration.
+    *
+    * @param newCal    new calibration to apply.
+    */
+    public void setCalibration(Calibration newCal) {
+        cal = newCal.copy();
+    }
+
+   /**
+    *	Returns the calibration of the frames.
+    *
+    *	@return the calibration, null if not set.
+    */
+    public Calibration getCalibration() {
+        return cal;
+    }
+
+   /**
+    *	Returns the width of a frame.
+    *
+    *	@return the width.
+    */
+    public int getWidth() {
+        return width;
+    }
+
+   /**
+    *	Returns the height of a frame.
+    *
+    *	@return the height.
+    */
+    public int getHeight() {
+        return height;
+    }
+
+   /**
+    *	Returns the number of frames.
+    *
+    *	@return the number of frames.
+    */
+    public int getFrames() {
+        return frames;
+    }
+}
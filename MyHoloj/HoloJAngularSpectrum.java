@@ -0,0 +1,212 @@
+package holoj;
+
+import java.nio.DoubleBuffer;
+
+/**
+ * Class HoloJAngularSpectrum holds the band-limited angular spectrum transfer function
+ * exp(i*2*PI*distance*(sqrt(1/wavelength^2-fx^2-fy^2)-1/wavelength)).
+ * Unlike the Fresnel chirp it makes no paraxial approximation, so it stays exact at short distances.
+ * Sampled on the native grid, its phase varies faster than the spectrum pixels at high frequencies and
+ * long distances, which aliases; following Matsushima and Shimobaba (2009) the function is set to zero where
+ * |fx| > 1/(wavelength*sqrt((2*distance/(width*dx))^2+1)), and likewise along Y. Evanescent components
+ * are set to zero too. With the band limit the field does not need to be padded to twice its size.
+ * The function depends on fx^2 and fy^2 only, so it is evaluated on one quadrant of the centered
+ * frequencies and read back through mirrored indices.
+ *
+ * @author Brian Mitchell
+ * @version 1.0
+ */
+public final class HoloJAngularSpectrum implements HoloJTransfer {
+
+    private final int width;
+    private final int height;
+    // quadrant of non negative frequencies, (width/2+1) x (height/2+1).
+    private final int quadrantWidth;
+    private final double[] quadrantReal;
+    private final double[] quadrantComplex;
+    // index in the quadrant of each column, and offset of each row.
+    private final int[] colIndex;
+    private final int[] rowOffset;
+
+   /**
+    * Creates the band-limited angular spectrum transfer function of a propagation.
+    *
+    * @param width      image width.
+    * @param height     image height.
+    * @param dx         pixel size along X.
+    * @param dy         pixel size along Y.
+    * @param distance   propagation distance.
+    * @param wavelength wavelength of the illumination.
+    */
+    public HoloJAngularSpectrum(int width, int height, double dx, double dy, double distance, double wavelength) {
+        if (width < 1)
+            throw new ArrayStoreException("Constructor: width < 1.");
+        if (height < 1)
+            throw new ArrayStoreException("Constructor: height < 1.");
+        this.width = width;
+        this.height = height;
+        int halfWidth = width/2;
+        int halfHeight = height/2;
+        quadrantWidth = halfWidth+1;
+        int quadrantHeight = halfHeight+1;
+
+        double limitX = bandLimit(distance/(width*dx), wavelength);
+        double limitY = bandLimit(distance/(height*dy), wavelength);
+        double k = 2*Math.PI*distance;
+        double invWavelength = 1.0/wavelength;
+        quadrantReal = new double[quadrantWidth*quadrantHeight];
+        quadrantComplex = new double[quadrantWidth*quadrantHeight];
+        for (int b=0, m=0; b<quadrantHeight; b++) {
+            double fy = (double)b/(height*dy);
+            for (int a=0; a<quadrantWidth; a++, m++) {
+                double fx = (double)a/(width*dx);
+                double f2 = fx*fx+fy*fy;
+                double arg = invWavelength*invWavelength-f2;
+                if ((fx > limitX) || (fy > limitY) || (arg <= 0)) continue;
+                // sqrt(arg)-1/wavelength, written without cancellation at low frequencies.
+                double phase = -k*f2/(Math.sqrt(arg)+invWavelength);
+                quadrantReal[m] = Math.cos(phase);
+                quadrantComplex[m] = Math.sin(phase);
+            }
+        }
+        colIndex = new int[width];
+        for (int col=0; col<width; col++) colIndex[col] = Math.abs(col-halfWidth);
+        rowOffset = new int[height];
+        for (int row=0; row<height; row++) rowOffset[row] = Math.abs(row-halfHeight)*quadrantWidth;
+    } // Constructor (width, height, dx, dy, distance, wavelength)
+
+    // largest frequency whose transfer function is sampled without aliasing, for distance/(n*d).
+    private static double bandLimit(double ratio, double wavelength) {
+        return 1.0/(wavelength*Math.sqrt(4*ratio*ratio+1));
+    }
+
+   /**
+    * Multiplies in place split real and imaginary pixels by the transfer function.
+    *
+    * @param real       real parts of the spectrum.
+    * @param complex    imaginary parts of the spectrum.
+    */
+    public void apply(double[] real, double[] complex) {
+        if ((real.length < width*height) || (complex.length < width*height))
+            throw new IndexOutOfBoundsException("apply: arrays are smaller than width*height.");
+        for (int row=0, pos=0; row<height; row++) {
+            int offset = rowOffset[row];
+            for (int col=0; col<width; col++, pos++) {
+                int m = offset+colIndex[col];
+                double tr = quadrantReal[m];
+                double ti = quadrantComplex[m];
+                double re = real[pos];
+                double im = complex[pos];
+                real[pos] = re*tr - im*ti;
+                complex[pos] = re*ti + im*tr;
+            }
+        }
+    }
+
+   /**
+    * Multiplies in place RE1,CO1,RE2,CO2... pixels by the transfer function.
+    *
+    * @param pixels     interleaved spectrum.
+    */
+    public void apply(double[] pixels) {
+        apply(pixels, 0);
+    }
+
+   /**
+    * Multiplies in place the RE1,CO1,RE2,CO2... pixels of an image stored from offset on.
+    *
+    * @param pixels     array holding the interleaved spectrum.
+    * @param offset     index of the real part of the first pixel.
+    */
+    public void apply(double[] pixels, int offset) {
+        if ((offset < 0) || (pixels.length-offset < (width*height << 1)))
+            throw new IndexOutOfBoundsException("apply: array is smaller than offset+width*height.");
+        for (int row=0, pos=offset; row<height; row++) {
+            int quadrantRow = rowOffset[row];
+            for (int col=0; col<width; col++, pos+=2) {
+                int m = quadrantRow+colIndex[col];
+                double tr = quadrantReal[m];
+                double ti = quadrantComplex[m];
+                double re = pixels[pos];
+                double im = pixels[pos+1];
+                pixels[pos] = re*tr - im*ti;
+                pixels[pos+1] = re*ti + im*tr;
+            }
+        }
+    }
+
+   /**
+    * Multiplies in place RE1,CO1,RE2,CO2... pixels held in a buffer, one row at a time.
+    *
+    * @param pixels     interleaved spectrum.
+    */
+    public void apply(DoubleBuffer pixels) {
+        if (pixels.capacity() < (width*height << 1))
+            throw new IndexOutOfBoundsException("apply: buffer is smaller than width*height.");
+        int rowLength = width << 1;
+        double[] line = new double[rowLength];
+        for (int row=0, offset=0; row<height; row++, offset+=rowLength) {
+            int quadrantRow = rowOffset[row];
+            HoloJBufferPool.get(pixels, offset, line, 0, rowLength);
+            for (int col=0, pos=0; col<width; col++, pos+=2) {
+                int m = quadrantRow+colIndex[col];
+                double tr = quadrantReal[m];
+                double ti = quadrantComplex[m];
+                double re = line[pos];
+                double im = line[pos+1];
+                line[pos] = re*tr - im*ti;
+                line[pos+1] = re*ti + im*tr;
+            }
+            HoloJBufferPool.put(pixels, offset, line, 0, rowLength);
+        }
+    }
+
+   /**
+    * Multiplies in place single precision RE1,CO1,RE2,CO2... pixels by the transfer function.
+    *
+    * @param pixels     interleaved spectrum.
+    */
+    public void apply(float[] pixels) {
+        if (pixels.length < (width*height << 1))
+            throw new IndexOutOfBoundsException("apply: array is smaller than width*height.");
+        for (int row=0, pos=0; row<height; row++) {
+            int offset = rowOffset[row];
+            for (int col=0; col<width; col++, pos+=2) {
+                int m = offset+colIndex[col];
+                double tr = quadrantReal[m];
+                double ti = quadrantComplex[m];
+                double re = pixels[pos];
+                double im = pixels[pos+1];
+                pixels[pos] = (float)(re*tr - im*ti);
+                pixels[pos+1] = (float)(re*ti + im*tr);
+            }
+        }
+    }
+
+   /**
+    *	Returns the width of the transfer function.
+    *
+    *	@return the width.
+    */
+    public int getWidth() {
+        return width;
+    }
+
+   /**
+    *	Returns the height of the transfer function.
+    *
+    *	@return the height.
+    */
+    public int getHeight() {
+        return height;
+    }
+
+   /**
+    *	Returns the number of bytes held by the transfer function: a quadrant of complex factors and the index tables.
+    *
+    *	@return the size in bytes.
+    */
+    public long getMemorySize() {
+        return ((long)quadrantReal.length << 4)+((long)(width+height) << 2);
+    }
+}
@@ -0,0 +1,373 @@
+package holoj;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.io.FileSaver;
+import java.awt.Point;
+import java.awt.geom.Point2D;
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class HoloJBatch reconstructs every hologram of a directory without the GUI.
+ * Frames flow through a pipeline of stages (read, FFT, sideband, inverse FFT, write) connected by
+ * bounded queues, so that reading and writing overlap with computation while the number of frames
+ * in memory stays bounded. Amplitude and phase are written as TIFF files named after the input.
+ *
+ * Usage: java holoj.HoloJBatch -in dir -out dir [options]
+ *
+ * @author Brian Mitchell
+ * @version 1.0
+ */
+public final class HoloJBatch {
+
+    private static final String USAGE =
+        "Usage: java holoj.HoloJBatch -in <dir> -out <dir> [options]\n"+
+        "  -ref <file>          reference hologram recorded without object\n"+
+        "  -x <col> -y <row>    sideband center in the spectrum (default: located on the first frame)\n"+
+        "  -side <1|-1>         half of the spectrum searched when locating the sideband (default 1)\n"+
+        "  -track <pixels>      follow the sideband of each frame within this distance of the previous one;\n"+
+        "                       the fft and sideband stages then run on one thread, in frame order\n"+
+        "  -radius <pixels>     sideband radius (default 64)\n"+
+        "  -scale <factor>      scale factor of the reconstruction (default 2)\n"+
+        "  -butterworth         use the soft aperture\n"+
+        "  -distance <m>        propagation distance, 0 for none (default 0)\n"+
+        "  -dx <m> -dy <m>      pixel size (default 3.45e-6)\n"+
+        "  -wavelength <m>      wavelength (default 6.33e-7)\n"+
+        "  -amplitude -phase    outputs to write (default both)\n"+
+        "  -workers <n>         threads of each computing stage (default 1)\n"+
+        "  -queue <n>           frames waiting between two stages (default 4)\n"+
+        "  -pool <MB>           memory kept for recycling pixel arrays (default a quarter of the heap)\n"+
+        "  -offheap             keep the pixels of the frames outside the heap, for very large holograms\n"+
+        "  -offheap-pool <MB>   direct memory kept for recycling off-heap pixels (default a quarter of the limit)";
+
+    // marks the end of the frames in a queue.
+    private static final Frame END = new Frame(null);
+
+    private File inputDir = null;
+    private File outputDir = null;
+    private File referenceFile = null;
+    private Point sideCenter = null;
+    // sub-pixel center when it was located, used to remove the residual tilt without reference.
+    private Point2D.Double subCenter = null;
+    private int side = 1;
+    private int trackWindow = 0;
+    private int radius = 64;
+    private int scale = 2;
+    private boolean useButterworth = false;
+    private double distance = 0.0;
+    private double dx = 3.45e-6;
+    private double dy = 3.45e-6;
+    private double wavelength = 6.33e-7;
+    private boolean amplitude = false;
+    private boolean phase = false;
+    private int workers = 1;
+    private int queueSize = 4;
+    private long poolCapacity = -1;
+    private boolean offHeap = false;
+    private long directPoolCapacity = -1;
+
+    private HoloJReference reference = null;
+    private HoloJSidebandTracker tracker = null;
+    private final AtomicInteger done = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+
+    private HoloJBatch() {
+    }
+
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        HoloJBatch batch = new HoloJBatch();
+        try {
+            batch.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+        try {
+            batch.run();
+        } catch (Exception e) {
+            System.err.println("HoloJBatch: "+e.getMessage());
+            System.exit(2);
+        }
+    }
+
+    private void parse(String[] args) {
+        for (int i=0; i<args.length; i++) {
+            String option = args[i];
+            if (option.equals("-butterworth")) useButterworth = true;
+            else if (option.equals("-amplitude")) amplitude = true;
+            else if (option.equals("-phase")) phase = true;
+            else if (option.equals("-offheap")) offHeap = true;
+            else {
+                if (i+1 >= args.length)
+                    throw new IllegalArgumentException("Missing value of "+option+".");
+                String value = args[++i];
+                try {
+                    if (option.equals("-in")) inputDir = new File(value);
+                    else if (option.equals("-out")) outputDir = new File(value);
+                    else if (option.equals("-ref")) referenceFile = new File(value);
+                    else if (option.equals("-x")) getCenter().x = Integer.parseInt(value);
+                    else if (option.equals("-y")) getCenter().y = Integer.parseInt(value);
+                    else if (option.equals("-side")) side = Integer.parseInt(value);
+                    else if (option.equals("-track")) trackWindow = Integer.parseInt(value);
+                    else if (option.equals("-radius")) radius = Integer.parseInt(value);
+                    else if (option.equals("-scale")) scale = Integer.parseInt(value);
+                    else if (option.equals("-distance")) distance = Double.parseDouble(value);
+                    else if (option.equals("-dx")) dx = Double.parseDouble(value);
+                    else if (option.equals("-dy")) dy = Double.parseDouble(value);
+                    else if (option.equals("-wavelength")) wavelength = Double.parseDouble(value);
+                    else if (option.equals("-workers")) workers = Integer.parseInt(value);
+                    else if (option.equals("-queue")) queueSize = Integer.parseInt(value);
+                    else if (option.equals("-pool")) poolCapacity = Long.parseLong(value) << 20;
+                    else if (option.equals("-offheap-pool")) directPoolCapacity = Long.parseLong(value) << 20;
+                    else throw new IllegalArgumentException("Unknown option "+option+".");
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Bad value of "+option+": "+value+".");
+                }
+            }
+        }
+        if ((inputDir == null) || !inputDir.isDirectory())
+            throw new IllegalArgumentException("-in must be an existing directory.");
+        if (outputDir == null)
+            throw new IllegalArgumentException("-out is required.");
+        if ((referenceFile != null) && !referenceFile.isFile())
+            throw new IllegalArgumentException("-ref must be an existing file.");
+        if ((workers < 1) || (queueSize < 1) || (radius < 1) || (scale < 1) || (trackWindow < 0))
+            throw new IllegalArgumentException("-workers, -queue, -radius, -scale and -track must be positive.");
+        if ((poolCapacity < -1) || (directPoolCapacity < -1))
+            throw new IllegalArgumentException("-pool and -offheap-pool must be positive.");
+        if (!amplitude && !phase) amplitude = phase = true;
+    }
+
+    private Point getCenter() {
+        if (sideCenter == null) sideCenter = new Point(-1, -1);
+        return sideCenter;
+    }
+
+    private void run() throws InterruptedException {
+        File[] files = inputDir.listFiles();
+        Arrays.sort(files);
+        if (poolCapacity >= 0) HoloJBufferPool.setCapacity(poolCapacity);
+        if (directPoolCapacity >= 0) HoloJBufferPool.setDirectCapacity(directPoolCapacity);
+        if (!outputDir.isDirectory() && !outputDir.mkdirs())
+            throw new IllegalArgumentException("cannot create "+outputDir+".");
+        if ((sideCenter != null) && ((sideCenter.x < 0) || (sideCenter.y < 0)))
+            throw new IllegalArgumentException("-x and -y must be given together.");
+        if (sideCenter == null) sideCenter = locateSideband(referenceFile != null ? referenceFile : firstImage(files));
+        if (subCenter != null) System.out.printf("sideband center %.2f,%.2f radius %d scale %d%n", subCenter.x, subCenter.y, radius, scale);
+        else System.out.println("sideband center "+sideCenter.x+","+sideCenter.y+" radius "+radius+" scale "+scale);
+        if (referenceFile != null) {
+            HoloJProcessor hologram = open(referenceFile);
+            reference = new HoloJReference(radius, scale, sideCenter, hologram, useButterworth);
+            if ((trackWindow > 0) && (subCenter == null)) {
+                // with -x and -y the reference carrier is not located, but tracked frames need the tilt
+                // it leaves at sideCenter, which the reference division cancels.
+                hologram.doFFT();
+                subCenter = HoloJSidebandLocator.refine(hologram, sideCenter, HoloJSidebandLocator.SPECTRAL);
+            }
+            hologram.release();
+        }
+        if (trackWindow > 0) tracker = new HoloJSidebandTracker(side, trackWindow);
+        // residual tilt of the sideband extracted at sideCenter: it cancels in the reference division.
+        final double baseOffsetX = (subCenter != null) ? subCenter.x-sideCenter.x : 0.0;
+        final double baseOffsetY = (subCenter != null) ? subCenter.y-sideCenter.y : 0.0;
+        // the tracker follows the frames one after the other: they must reach it in the read order.
+        final int spectrumWorkers = (tracker != null) ? 1 : workers;
+
+        BlockingQueue<Frame> read = new ArrayBlockingQueue<Frame>(queueSize);
+        BlockingQueue<Frame> spectrum = new ArrayBlockingQueue<Frame>(queueSize);
+        BlockingQueue<Frame> sideband = new ArrayBlockingQueue<Frame>(queueSize);
+        BlockingQueue<Frame> reconstructed = new ArrayBlockingQueue<Frame>(queueSize);
+        Stage[] stages = {
+            new Stage("fft", read, spectrum, spectrumWorkers) {
+                void process(Frame frame) {
+                    frame.data.doFFT();
+                }
+            },
+            new Stage("sideband", spectrum, sideband, spectrumWorkers) {
+                void process(Frame frame) {
+                    Point center = sideCenter;
+                    frame.offsetX = baseOffsetX;
+                    frame.offsetY = baseOffsetY;
+                    if (tracker != null) {
+                        Point2D.Double tracked = tracker.track(frame.data);
+                        center = new Point((int)Math.round(tracked.x), (int)Math.round(tracked.y));
+                        frame.offsetX = tracked.x-center.x;
+                        frame.offsetY = tracked.y-center.y;
+                    }
+                    HoloJProcessor spectrum = frame.data;
+                    frame.data = spectrum.getSideband(center, radius, scale, useButterworth);
+                    // the next frames borrow its arrays.
+                    spectrum.release();
+                }
+            },
+            new Stage("ifft", sideband, reconstructed, workers) {
+                void process(Frame frame) {
+                    frame.data.doInverseFFT();
+                    if (reference != null) {
+                        reference.apply(frame.data);
+                        frame.offsetX -= baseOffsetX;
+                        frame.offsetY -= baseOffsetY;
+                    }
+                    if ((frame.offsetX != 0.0) || (frame.offsetY != 0.0))
+                        HoloJSidebandLocator.removeTilt(frame.data, frame.offsetX, frame.offsetY);
+                    if (distance != 0.0)
+                        frame.data = HoloJUtils.propogatefunc(frame.data, frame.data.getWidth(),
+                                                              frame.data.getHeight(), dx, dy, distance, wavelength);
+                }
+            },
+            new Stage("write", reconstructed, null, 1) {
+                void process(Frame frame) {
+                    write(frame);
+                    frame.data.release();
+                }
+            }
+        };
+        long start = System.nanoTime();
+        for (int i=0; i<stages.length; i++) stages[i].start();
+        for (int i=0; i<files.length; i++) {
+            if (!files[i].isFile()) continue;
+            try {
+                read.put(new Frame(files[i], open(files[i])));
+            } catch (RuntimeException e) {
+                failed.incrementAndGet();
+                System.err.println(files[i].getName()+": "+e.getMessage());
+            }
+        }
+        read.put(END);
+        for (int i=0; i<stages.length; i++) stages[i].join();
+        double seconds = (System.nanoTime()-start)/1e9;
+        System.out.printf("%d frames in %.1f s, %.2f frames/s, %d failed%n",
+                          done.get(), seconds, done.get()/seconds, failed.get());
+        if (tracker != null) System.out.println("sideband tracking: "+tracker.getFullScans()+" full scans");
+        System.out.printf("buffer pool: %.0f%% hits, %.1f MB peak retained%n",
+                          100*HoloJBufferPool.getHitRate(), HoloJBufferPool.getPeakRetainedBytes()/1048576.0);
+        if (offHeap)
+            System.out.printf("off-heap buffers: %.1f MB retained%n", HoloJBufferPool.getRetainedDirectBytes()/1048576.0);
+    }
+
+    private File firstImage(File[] files) {
+        for (int i=0; i<files.length; i++)
+            if (files[i].isFile()) return files[i];
+        throw new IllegalArgumentException("no file in "+inputDir+".");
+    }
+
+    private Point locateSideband(File file) {
+        HoloJProcessor hologram = open(file);
+        hologram.doFFT();
+        subCenter = HoloJSidebandLocator.locate(hologram, side);
+        hologram.release();
+        return new Point((int)Math.round(subCenter.x), (int)Math.round(subCenter.y));
+    }
+
+    private HoloJProcessor open(File file) {
+        ImagePlus imp = IJ.openImage(file.getPath());
+        if (imp == null)
+            throw new IllegalArgumentException("cannot open "+file.getName()+".");
+        // off the heap, every stage works on the direct buffer and the sideband it gives.
+        return new HoloJProcessor(imp.getProcessor(), offHeap);
+    }
+
+    private void write(Frame frame) {
+        String name = frame.file.getName();
+        int dot = name.lastIndexOf('.');
+        if (dot > 0) name = name.substring(0, dot);
+        if (amplitude) save(new ImagePlus(name+"_amplitude", frame.data.createAmplitudeProcessor()));
+        if (phase) save(new ImagePlus(name+"_phase", frame.data.createPhaseProcessor()));
+        int count = done.incrementAndGet();
+        if (count % 100 == 0) System.out.println(count+" frames");
+    }
+
+    private void save(ImagePlus imp) {
+        String path = new File(outputDir, imp.getTitle()+".tif").getPath();
+        if (!new FileSaver(imp).saveAsTiff(path))
+            throw new IllegalArgumentException("cannot write "+path+".");
+    }
+
+   /**
+    * A hologram on its way through the pipeline.
+    */
+    private static final class Frame {
+        final File file;
+        HoloJProcessor data;
+        // sub-pixel part of the sideband center, removed as a phase tilt.
+        double offsetX;
+        double offsetY;
+
+        Frame(File file) {
+            this(file, null);
+        }
+
+        Frame(File file, HoloJProcessor data) {
+            this.file = file;
+            this.data = data;
+        }
+    }
+
+   /**
+    * Threads taking frames from an input queue, processing them and passing them to the output queue.
+    * A frame that fails is reported and dropped. The end marker is passed on once all threads
+    * of the stage have seen it.
+    */
+    private abstract class Stage {
+        private final String name;
+        private final BlockingQueue<Frame> input;
+        private final BlockingQueue<Frame> output;
+        private final Thread[] threads;
+        private final AtomicInteger running;
+
+        Stage(String name, BlockingQueue<Frame> input, BlockingQueue<Frame> output, int count) {
+            this.name = name;
+            this.input = input;
+            this.output = output;
+            threads = new Thread[count];
+            running = new AtomicInteger(count);
+            for (int i=0; i<count; i++) {
+                threads[i] = new Thread(new Runnable() {
+                    public void run() {
+                        work();
+                    }
+                }, "HoloJBatch-"+name+"-"+i);
+            }
+        }
+
+        abstract void process(Frame frame);
+
+        void start() {
+            for (int i=0; i<threads.length; i++) threads[i].start();
+        }
+
+        void join() throws InterruptedException {
+            for (int i=0; i<threads.length; i++) threads[i].join();
+        }
+
+        private void work() {
+            try {
+                while (true) {
+                    Frame frame = input.take();
+                    if (frame == END) {
+                        // let the other threads of this stage see the marker too.
+                        input.put(END);
+                        if ((running.decrementAndGet() == 0) && (output != null)) output.put(END);
+                        return;
+                    }
+                    try {
+                        process(frame);
+                    } catch (RuntimeException e) {
+                        failed.incrementAndGet();
+                        System.err.println(frame.file.getName()+" ("+name+"): "+e.getMessage());
+                        continue;
+                    }
+                    if (output != null) output.put(frame);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
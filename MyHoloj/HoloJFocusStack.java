@@ -0,0 +1,275 @@
+package holoj;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.measure.Calibration;
+import ij.process.FloatProcessor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Class HoloJFocusStack propagates one field to a series of distances, as repeated calls to
+ * HoloJUtils.propogatefunc would, but computes the forward spectrum only once.
+ * Each plane then costs one in-place multiply by the transfer function and one inverse FFT;
+ * planes are computed in parallel on the pool of HoloJFFTPlan.
+ *
+ * @author Brian Mitchell
+ * @version 1.0
+ */
+public final class HoloJFocusStack {
+
+    private final int width;
+    private final int height;
+    private final double dx;
+    private final double dy;
+    private final double wavelength;
+    // centered spectrum of the field, in RE1,CO1,RE2,CO2... sequence. Never modified.
+    private final double[] spectrum;
+    private Calibration cal = null;
+
+   /**
+    * Creates a focus stack for field. The field itself is left untouched.
+    *
+    * @param field      the field to propagate, usually a reconstructed hologram.
+    * @param dx         pixel size along X.
+    * @param dy         pixel size along Y.
+    * @param wavelength wavelength of the illumination.
+    */
+    public HoloJFocusStack(HoloJProcessor field, double dx, double dy, double wavelength) {
+        if (field == null)
+            throw new ArrayStoreException("Constructor: field == null.");
+        width = field.getWidth();
+        height = field.getHeight();
+        this.dx = dx;
+        this.dy = dy;
+        this.wavelength = wavelength;
+        int size = width*height;
+        spectrum = new double[size << 1];
+        for (int k=0; k<size; k++) {
+            spectrum[2*k] = field.getReal(k);
+            spectrum[2*k+1] = field.getComplex(k);
+        }
+        HoloJFFTPlan.getPlan(width, height, 1).transform(spectrum);
+        cal = field.getCalibration();
+    } // Constructor (field, dx, dy, wavelength)
+
+    private HoloJFocusStack(double[] spectrum, int width, int height, double dx, double dy, double wavelength) {
+        this.spectrum = spectrum;
+        this.width = width;
+        this.height = height;
+        this.dx = dx;
+        this.dy = dy;
+        this.wavelength = wavelength;
+    } // Constructor (spectrum, width, height, dx, dy, wavelength)
+
+   /**
+    * Returns a focus stack with planes factor times smaller, sharing the spectrum of this one.
+    * The central part of the spectrum is kept and the pixel size is scaled, so that
+    * the transfer function is sampled at the very same frequencies: planes are low-pass
+    * versions of the full resolution ones.
+    *
+    * @param factor     reduction factor of width and height.
+    * @return the reduced focus stack.
+    */
+    public HoloJFocusStack downsample(int factor) {
+        if (factor < 1)
+            throw new IllegalArgumentException("downsample: factor < 1.");
+        int w = Math.max(1, width/factor);
+        int h = Math.max(1, height/factor);
+        double[] cropped = new double[w*h << 1];
+        int x0 = width/2-w/2;
+        int y0 = height/2-h/2;
+        for (int row=0; row<h; row++)
+            System.arraycopy(spectrum, ((y0+row)*width+x0) << 1, cropped, (row*w) << 1, w << 1);
+        return new HoloJFocusStack(cropped, w, h, dx*width/w, dy*height/h, wavelength);
+    }
+
+   /**
+    * Returns count distances evenly spaced from start to end, both included.
+    *
+    * @param start  first distance.
+    * @param end    last distance.
+    * @param count  number of distances.
+    * @return the distances.
+    */
+    public static double[] range(double start, double end, int count) {
+        if (count < 1)
+            throw new IllegalArgumentException("range: count < 1.");
+        double[] distances = new double[count];
+        double step = (count > 1) ? (end-start)/(count-1) : 0.0;
+        for (int i=0; i<count; i++)
+            distances[i] = start+i*step;
+        return distances;
+    }
+
+   /**
+    * Returns the field propagated by distance.
+    *
+    * @param distance   propagation distance.
+    * @return a new HoloJProcessor with the propagated field.
+    */
+    public HoloJProcessor propagate(double distance) {
+        return propagate(distance, true);
+    }
+
+   /**
+    * Returns the field propagated by distance, keeping its transfer function in HoloJChirpCache only if keep is true.
+    *
+    * @param distance   propagation distance.
+    * @param keep       false for a distance probed once, such as a step of a golden-section search.
+    * @return a new HoloJProcessor with the propagated field.
+    */
+    public HoloJProcessor propagate(double distance, boolean keep) {
+        double[] field = spectrum.clone();
+        HoloJChirpCache.getTransfer(width, height, dx, dy, distance, wavelength, HoloJUtils.FRESNEL, keep).apply(field);
+        HoloJFFTPlan.getPlan(width, height, -1).transform(field);
+        HoloJProcessor result = new HoloJProcessor(width, height, field);
+        if (cal != null) result.setCalibration(cal);
+        return result;
+    }
+
+   /**
+    * Returns the amplitude of the field propagated by each distance, one slice per distance.
+    *
+    * @param distances  propagation distances.
+    * @return the amplitude stack.
+    */
+    public ImageStack getAmplitudeStack(double[] distances) {
+        return reconstruct(distances, true, false)[0];
+    }
+
+   /**
+    * Returns the phase of the field propagated by each distance, one slice per distance.
+    *
+    * @param distances  propagation distances.
+    * @return the phase stack.
+    */
+    public ImageStack getPhaseStack(double[] distances) {
+        return reconstruct(distances, false, true)[1];
+    }
+
+   /**
+    * Propagates the field by each distance and returns the requested stacks.
+    * Slices are labelled with their distance.
+    *
+    * @param distances  propagation distances.
+    * @param amplitude  true to build the amplitude stack.
+    * @param phase      true to build the phase stack.
+    * @return an array with the amplitude stack and the phase stack, null when not requested.
+    */
+    public ImageStack[] reconstruct(double[] distances, boolean amplitude, boolean phase) {
+        if (distances.length == 0)
+            throw new IllegalArgumentException("reconstruct: no distances.");
+        FloatProcessor[] amplitudes = amplitude ? new FloatProcessor[distances.length] : null;
+        FloatProcessor[] phases = phase ? new FloatProcessor[distances.length] : null;
+        ForkJoinPool fjp = HoloJFFTPlan.getPool();
+        PlaneTask task = new PlaneTask(distances, amplitudes, phases, null, 0, 0, distances.length);
+        if (fjp == null) task.compute();
+        else fjp.invoke(task);
+        ImageStack[] stacks = new ImageStack[2];
+        if (amplitude) stacks[0] = makeStack(distances, amplitudes);
+        if (phase) stacks[1] = makeStack(distances, phases);
+        return stacks;
+    }
+
+   /**
+    * Returns the focus metric of the field propagated by each distance.
+    *
+    * @param distances  propagation distances.
+    * @param metric     one of HoloJAutofocus.VARIANCE, TAMURA or GRADIENT.
+    * @return the metric value of each distance.
+    */
+    public double[] focusCurve(double[] distances, int metric) {
+        double[] values = new double[distances.length];
+        PlaneTask task = new PlaneTask(distances, null, null, values, metric, 0, distances.length);
+        ForkJoinPool fjp = HoloJFFTPlan.getPool();
+        if (fjp == null) task.compute();
+        else fjp.invoke(task);
+        return values;
+    }
+
+   /**
+    * Creates and show the amplitude and phase stacks of the field propagated by each distance.
+    *
+    * @param title      title prefix of the displayed stacks.
+    * @param distances  propagation distances.
+    * @param amplitude  true to show the amplitude stack.
+    * @param phase      true to show the phase stack.
+    */
+    public void show(String title, double[] distances, boolean amplitude, boolean phase) {
+        ImageStack[] stacks = reconstruct(distances, amplitude, phase);
+        if (amplitude) show(title+" : Amplitude", stacks[0]);
+        if (phase) show(title+" : Phase", stacks[1]);
+    }
+
+    private void show(String title, ImageStack stack) {
+        ImagePlus imp = new ImagePlus(title, stack);
+        if (cal != null) imp.setCalibration(cal);
+        imp.show();
+    }
+
+    private ImageStack makeStack(double[] distances, FloatProcessor[] planes) {
+        ImageStack stack = new ImageStack(width, height);
+        for (int i=0; i<distances.length; i++)
+            stack.addSlice("z="+distances[i], planes[i]);
+        return stack;
+    }
+
+   /**
+    * Computes the planes of a range of distances, splitting the range down to single planes.
+    * At most one full size complex buffer is live per running plane.
+    */
+    private final class PlaneTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final double[] distances;
+        private final FloatProcessor[] amplitudes;
+        private final FloatProcessor[] phases;
+        private final double[] values;
+        private final int metric;
+        private final int from;
+        private final int to;
+
+        PlaneTask(double[] distances, FloatProcessor[] amplitudes, FloatProcessor[] phases, double[] values, int metric, int from, int to) {
+            this.distances = distances;
+            this.amplitudes = amplitudes;
+            this.phases = phases;
+            this.values = values;
+            this.metric = metric;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected void compute() {
+            if (to-from > 1 && HoloJFFTPlan.getPool() != null) {
+                int middle = (from+to) >>> 1;
+                invokeAll(new PlaneTask(distances, amplitudes, phases, values, metric, from, middle),
+                          new PlaneTask(distances, amplitudes, phases, values, metric, middle, to));
+                return;
+            }
+            for (int i=from; i<to; i++) {
+                HoloJProcessor plane = propagate(distances[i]);
+                if (amplitudes != null) amplitudes[i] = plane.createAmplitudeProcessor();
+                if (phases != null) phases[i] = plane.createPhaseProcessor();
+                if (values != null) values[i] = HoloJAutofocus.sharpness(plane, metric);
+            }
+        }
+    }
+
+   /**
+    *	Returns the width of the propagated planes.
+    *
+    *	@return the width.
+    */
+    public int getWidth() {
+        return width;
+    }
+
+   /**
+    *	Returns the height of the propagated planes.
+    *
+    *	@return the height.
+    */
+    public int getHeight() {
+        return height;
+    }
+}
@@ -11,6 +11,7 @@ import ij.io.Opener;
 import ij.measure.Calibration;
 import ij.util.Java2;
 import java.awt.Point;
+import java.awt.geom.Point2D;
 import javax.swing.JCheckBox;
 import javax.swing.JComboBox;
 import javax.swing.JTextField;
@@ -30,6 +31,8 @@ public class HoloJFrame extends javax.swing.JFrame {
     private int x=0;
     private int y=0;
     private Point sideCenter = new Point();
+    // sub-pixel sideband center found by HoloJSidebandLocator, null if none.
+    private Point2D.Double subCenter = null;
     private int radius=50;
     private int ratio=2;
     private boolean butterworth=false;
@@ -60,6 +63,7 @@ public class HoloJFrame extends javax.swing.JFrame {
 			{
 				rec = HoloJUtils.reconstruct(radius,ratio,sideCenter,ref,holo,butterworth);
             }
+			else removeResidualTilt(rec);
 
             rec.setTitle(""+title);
 			rec.showHolo("Hologram : "+rec.getTitle()+" :");
@@ -75,7 +79,7 @@ public class HoloJFrame extends javax.swing.JFrame {
 			distance=getDouble(distanceTF);
             if (ref == null) 
 			{
-                rec = HoloJUtils.propogatefunc(rec, rec.getWidth(),rec.getHeight(), dx, dy, distance, wavelength);
+                rec = HoloJUtils.propogatefunc(rec, rec.getWidth(),rec.getHeight(), dx, dy, distance, wavelength, getPropagationMethod());
             }
 			else if((ref==null) && (holo == null))
 			{
@@ -83,7 +87,7 @@ public class HoloJFrame extends javax.swing.JFrame {
 			}
 			else 
 			{
-				rec = HoloJUtils.propogatefunc(rec, rec.getWidth(),rec.getHeight(), dx, dy, distance, wavelength);
+				rec = HoloJUtils.propogatefunc(rec, rec.getWidth(),rec.getHeight(), dx, dy, distance, wavelength, getPropagationMethod());
 
             }
             rec.setTitle(""+title);
@@ -91,6 +95,22 @@ public class HoloJFrame extends javax.swing.JFrame {
             if (amplitude) rec.showAmplitude("Hologram : "+rec.getTitle()+" : Amplitude");
         }
    
+    private int getPropagationMethod(){
+        if (methodCB.getSelectedIndex() == 1) return HoloJUtils.ANGULAR_SPECTRUM;
+        return HoloJUtils.FRESNEL;
+    }
+
+    // the division by the reference cancels the carrier, otherwise the sub-pixel part of the center is removed here.
+    private void removeResidualTilt(HoloJProcessor field){
+        if ((subCenter == null) || (Math.round(subCenter.x) != sideCenter.x) || (Math.round(subCenter.y) != sideCenter.y)) return;
+        HoloJSidebandLocator.removeTilt(field, subCenter.x-sideCenter.x, subCenter.y-sideCenter.y);
+    }
+
+    private void setSubCenter(Point2D.Double center){
+        subCenter = center;
+        sideCenter = new Point((int)Math.round(center.x), (int)Math.round(center.y));
+    }
+
     private ImagePlus createSidebandImage(HoloJProcessor hologram){
          
         ImagePlus imp;    
@@ -100,7 +120,7 @@ public class HoloJFrame extends javax.swing.JFrame {
         int r=getInteger(radiusTF);
              
         hologram.doFFT();
-        sideCenter=hologram.getSidebandCenter(ratio);
+        setSubCenter(HoloJSidebandLocator.locate(hologram, ratio));
         imp=hologram.makeSpectrumImage("Select Sideband");
         OvalRoi or=new OvalRoi(sideCenter.x-r,sideCenter.y-r,2*r,2*r);
         imp.setRoi(or);
@@ -207,7 +227,7 @@ public class HoloJFrame extends javax.swing.JFrame {
                     public void imageClosed(ImagePlus ip){
                         Roi sel = ip.getRoi(); 
                         if(ip.getRoi()!=null) {
-                            sideCenter = HoloJUtils.getMaximumPosition(hp,sel);
+                            setSubCenter(HoloJSidebandLocator.locate(hp,sel));
                             //radiusTF.setText((Math.max(h,w)>>1)+"");
                             xTF.setText(((int)sideCenter.x)+"");
                             yTF.setText(((int)sideCenter.y)+"");
@@ -303,6 +323,7 @@ public class HoloJFrame extends javax.swing.JFrame {
         jLabel10 = new javax.swing.JLabel();
         jLabel11 = new javax.swing.JLabel();
         jLabel12 = new javax.swing.JLabel();
+        methodCB = new javax.swing.JComboBox();
 
         setDefaultCloseOperation(javax.swing.WindowConstants.DISPOSE_ON_CLOSE);
         setTitle("HoloJ");
@@ -627,6 +648,9 @@ public class HoloJFrame extends javax.swing.JFrame {
 
         jLabel12.setText("distance");
 
+        methodCB.setModel(new javax.swing.DefaultComboBoxModel(new String[] { "Fresnel", "Angular spectrum" }));
+        methodCB.setToolTipText("Propagation kernel");
+
         javax.swing.GroupLayout jPanel3Layout = new javax.swing.GroupLayout(jPanel3);
         jPanel3.setLayout(jPanel3Layout);
         jPanel3Layout.setHorizontalGroup(
@@ -664,6 +688,7 @@ public class HoloJFrame extends javax.swing.JFrame {
                             .addComponent(jLabel12)
                             .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
                             .addComponent(distanceTF, javax.swing.GroupLayout.PREFERRED_SIZE, 160, javax.swing.GroupLayout.PREFERRED_SIZE))
+                        .addComponent(methodCB, javax.swing.GroupLayout.Alignment.TRAILING, javax.swing.GroupLayout.PREFERRED_SIZE, 160, javax.swing.GroupLayout.PREFERRED_SIZE)
                         .addComponent(jButton3, javax.swing.GroupLayout.Alignment.TRAILING, javax.swing.GroupLayout.PREFERRED_SIZE, 203, javax.swing.GroupLayout.PREFERRED_SIZE))
                     .addComponent(jButton6, javax.swing.GroupLayout.PREFERRED_SIZE, 203, javax.swing.GroupLayout.PREFERRED_SIZE))
                 .addGap(25, 25, 25))
@@ -701,6 +726,8 @@ public class HoloJFrame extends javax.swing.JFrame {
                         .addComponent(distanceTF, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE)
                         .addComponent(jLabel12))
                     .addComponent(jLabel10))
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addComponent(methodCB, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE)
                 .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED, 12, Short.MAX_VALUE)
                 .addGroup(jPanel3Layout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
                     .addComponent(jButton2)
@@ -874,6 +901,7 @@ public class HoloJFrame extends javax.swing.JFrame {
     private javax.swing.JLabel jLabel10;
     private javax.swing.JLabel jLabel11;
     private javax.swing.JLabel jLabel12;
+    private javax.swing.JComboBox methodCB;
     private javax.swing.JLabel jLabel2;
     private javax.swing.JLabel jLabel3;
     private javax.swing.JLabel jLabel4;
@@ -0,0 +1,68 @@
+package holoj;
+
+/**
+ * Class HoloJKernelBenchmark compares the kernels chosen by HoloJKernels.get() with the scalar kernels,
+ * on images of width*height complex pixels, and checks that both give the same results.
+ * Usage: java --add-modules jdk.incubator.vector holoj.HoloJKernelBenchmark [width] [height] [repetitions]
+ * Without --add-modules both columns measure the scalar kernels.
+ *
+ * @author Brian Mitchell
+ * @version 1.0
+ */
+public final class HoloJKernelBenchmark {
+
+    private static final String[] KERNELS = {"multiply interleaved", "divide interleaved", "multiply split",
+                                             "divide split"};
+
+    private HoloJKernelBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        int width = (args.length > 0) ? Integer.parseInt(args[0]) : 2048;
+        int height = (args.length > 1) ? Integer.parseInt(args[1]) : width;
+        int repetitions = (args.length > 2) ? Integer.parseInt(args[2]) : 20;
+        int size = width*height;
+        java.util.Random random = new java.util.Random(0);
+        double[][] operands = new double[6][];
+        for (int k=0; k<operands.length; k++) {
+            operands[k] = new double[size << 1];
+            for (int i=0; i<operands[k].length; i++) operands[k][i] = random.nextDouble()-0.5;
+        }
+        HoloJKernels scalar = new HoloJKernels();
+        HoloJKernels chosen = HoloJKernels.get();
+        System.out.println("kernels "+width+"x"+height+", "+chosen.getName());
+        for (int k=0; k<KERNELS.length; k++) {
+            double[] scalarResult = new double[size << 1];
+            double[] chosenResult = new double[size << 1];
+            double scalarTime = time(scalar, k, operands, scalarResult, size, repetitions);
+            double chosenTime = time(chosen, k, operands, chosenResult, size, repetitions);
+            boolean same = java.util.Arrays.equals(scalarResult, chosenResult);
+            System.out.printf("%-22s scalar %9.1f us  %s %9.1f us  speedup %5.2f%s%n", KERNELS[k], scalarTime,
+                              chosen.getName(), chosenTime, scalarTime/chosenTime, same ? "" : "  RESULTS DIFFER");
+        }
+    }
+
+    // best time of the repetitions, after a warm up. The result of the last run is left in dest.
+    private static double time(HoloJKernels kernels, int kernel, double[][] operands, double[] dest, int size, int repetitions) {
+        // split kernels write real parts to the first half of dest and imaginary parts to the second.
+        double[] imDest = new double[size];
+        long best = Long.MAX_VALUE;
+        for (int r=-3; r<repetitions; r++) {
+            long start = System.nanoTime();
+            run(kernels, kernel, operands, dest, imDest, size);
+            if (r >= 0) best = Math.min(best, System.nanoTime()-start);
+        }
+        if (kernel >= 2) System.arraycopy(imDest, 0, dest, size, size);
+        return best/1e3;
+    }
+
+    private static void run(HoloJKernels kernels, int kernel, double[][] operands, double[] dest, double[] imDest, int size) {
+        double[] re1 = operands[2], im1 = operands[3], re2 = operands[4], im2 = operands[5];
+        switch (kernel) {
+            case 0: kernels.multiply(operands[0], operands[1], dest, size); break;
+            case 1: kernels.divide(operands[0], operands[1], dest, size); break;
+            case 2: kernels.multiply(re1, im1, re2, im2, dest, imDest, size); break;
+            default: kernels.divide(re1, im1, re2, im2, dest, imDest, size);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package holoj;
+
+import java.awt.Point;
+import java.nio.DoubleBuffer;
+
+/**
+ * Class HoloJReference holds a reference hologram prepared for the reconstruction of a series of
+ * holograms recorded with the same setup. The reference is transformed, filtered and transformed back
+ * once; its reciprocal is stored, so each hologram then costs its own FFTs and one complex multiply,
+ * and gives the same result as HoloJUtils.reconstruct(radius, scaleFactor, sideCenter, hologram, reference, useButterworth).
+ *
+ * @author Brian Mitchell
+ * @version 1.0
+ */
+public final class HoloJReference {
+
+    private final int radius;
+    private final int scaleFactor;
+    private final Point sideCenter;
+    private final boolean useButterworth;
+    private final int width;
+    private final int height;
+    // 1/reference field, in RE1,CO1,RE2,CO2... sequence.
+    private final double[] reciprocal;
+
+   /**
+    * Prepares reference for the reconstruction of holograms of the same size.
+    * The reference processor itself is left untouched.
+    *
+    * @param radius			radius of reconstructed frequency region.
+    * @param scaleFactor		scale factor of final reconstructed image.
+    * @param sideCenter		center of the sideband.
+    * @param reference                 hologram recorded in void.
+    * @param useButterworth            flag for using soft aperture.
+    */
+    public HoloJReference(int radius, int scaleFactor, Point sideCenter, HoloJProcessor reference, boolean useButterworth) {
+        if (reference == null)
+            throw new ArrayStoreException("Constructor: reference == null.");
+        this.radius = radius;
+        this.scaleFactor = scaleFactor;
+        this.sideCenter = new Point(sideCenter);
+        this.useButterworth = useButterworth;
+        width = reference.getWidth();
+        height = reference.getHeight();
+        int size = width*height;
+        HoloJProcessor spectrum;
+        if (reference.isOffHeap()) {
+            // an off-heap reference is transformed off the heap too.
+            spectrum = new HoloJProcessor(width, height, HoloJBufferPool.borrowDirect(size << 1, false));
+            for (int k=0; k<size; k++)
+                spectrum.setPixel(k, reference.getReal(k), reference.getComplex(k));
+        } else {
+            double[] copy = HoloJBufferPool.borrow(size << 1, false);
+            for (int k=0; k<size; k++) {
+                copy[2*k] = reference.getReal(k);
+                copy[2*k+1] = reference.getComplex(k);
+            }
+            spectrum = new HoloJProcessor(width, height, copy);
+        }
+        // the storage was borrowed for the spectrum only, so that release() gives it back.
+        spectrum.setOwnsPixels(true);
+        // transform the reference as the holograms are.
+        if (reference.isRealOrigin()) spectrum.setRealOrigin();
+        spectrum.doFFT();
+        HoloJProcessor field = spectrum.getSideband(this.sideCenter, radius, scaleFactor, useButterworth);
+        field.doInverseFFT();
+        int fieldSize = field.getSize();
+        reciprocal = new double[fieldSize << 1];
+        for (int k=0; k<fieldSize; k++) {
+            double re = field.getReal(k);
+            double im = field.getComplex(k);
+            double den = re*re+im*im;
+            reciprocal[2*k] = re/den;
+            reciprocal[2*k+1] = -im/den;
+        }
+        spectrum.release();
+        field.release();
+    } // Constructor (radius, scaleFactor, sideCenter, reference, useButterworth)
+
+   /**
+    * Reconstructs hologram, dividing its reconstructed field by the prepared reference.
+    * The hologram is transformed in place, as in HoloJUtils.reconstruct.
+    *
+    * @param hologram   hologram to be reconstructed, of the same size as the reference.
+    * @return the reconstructed image.
+    */
+    public HoloJProcessor reconstruct(HoloJProcessor hologram) {
+        if ((hologram.getWidth() != width) || (hologram.getHeight() != height))
+            throw new IndexOutOfBoundsException("reconstruct: hologram and reference sizes must be equal.");
+        hologram.doFFT();
+        HoloJProcessor holoRec = hologram.getSideband(sideCenter, radius, scaleFactor, useButterworth);
+        holoRec.doInverseFFT();
+        apply(holoRec);
+        return holoRec;
+    }
+
+   /**
+    * Divides in place a reconstructed field by the prepared reference.
+    *
+    * @param field  the reconstructed hologram field.
+    */
+    public void apply(HoloJProcessor field) {
+        int size = field.getSize();
+        if (size<<1 != reciprocal.length)
+            throw new IndexOutOfBoundsException("apply: sizes must be equal.");
+        if (field.isOffHeap()) {
+            DoubleBuffer buffer = field.bufferStorage();
+            for (int i=0; i<reciprocal.length; i+=2) {
+                double re = buffer.get(i);
+                double im = buffer.get(i+1);
+                buffer.put(i, re*reciprocal[i]-im*reciprocal[i+1]);
+                buffer.put(i+1, re*reciprocal[i+1]+im*reciprocal[i]);
+            }
+            field.setComplexOrigin();
+            return;
+        }
+        double[] pixels = field.interleavedStorage();
+        for (int i=0; i<pixels.length; i+=2) {
+            double re = pixels[i];
+            double im = pixels[i+1];
+            pixels[i] = re*reciprocal[i]-im*reciprocal[i+1];
+            pixels[i+1] = re*reciprocal[i+1]+im*reciprocal[i];
+        }
+        field.setComplexOrigin();
+    }
+
+   /**
+    *	Returns the width of the holograms this reference applies to.
+    *
+    *	@return the hologram width.
+    */
+    public int getWidth() {
+        return width;
+    }
+
+   /**
+    *	Returns the height of the holograms this reference applies to.
+    *
+    *	@return the hologram height.
+    */
+    public int getHeight() {
+        return height;
+    }
+}
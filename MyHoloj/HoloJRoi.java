@@ -0,0 +1,161 @@
+package holoj;
+
+import ij.gui.Roi;
+import java.awt.Point;
+import java.awt.Rectangle;
+
+/**
+ * Class HoloJRoi reconstructs and propagates only a region of interest of a hologram.
+ * Reconstruction works on a square window of the hologram around the region: the sideband of the window
+ * sits at the same spatial frequency, so its center and radius are those of the full frame scaled by the
+ * window size, and all transforms are window sized. The window extends a few widths of the kernel of the
+ * sideband filter beyond the region, so that the ringing of the window edges stays out of it; it lies on
+ * the pixel grid of the full frame reconstruction and wraps around the hologram edges as the full frame
+ * transform does. Propagation works on the region of the field padded
+ * by the lateral spread of the Fresnel kernel, so that the wrap around of the FFT does not reach the region.
+ *
+ * @author Brian Mitchell
+ * @version 1.0
+ */
+public final class HoloJRoi {
+
+    // largest prime factor of the preferred transform lengths.
+    private static final int PREFERRED_RADIX = 7;
+    // margin around the region, in widths of the spatial kernel of the sideband filter, about max(width, height)/radius pixels.
+    private static final int KERNEL_WIDTHS = 3;
+
+    private HoloJRoi() {
+    }
+
+   /**
+    * Returns the reconstructed field of the region selected by roi, as HoloJUtils.reconstruct would
+    * return it for the whole hologram.
+    *
+    * @param radius			radius of reconstructed frequency region in the full frame spectrum.
+    * @param scaleFactor		scale factor of final reconstructed image.
+    * @param sideCenter		center of the sideband in the full frame spectrum.
+    * @param hologram                  hologram to be reconstructed.
+    * @param reference                 hologram used as reference in void, or null.
+    * @param roi                       the region of interest, in hologram pixels.
+    * @param useButterworth            flag for using soft aperture.
+    * @return the reconstructed field of the region.
+    */
+    public static HoloJProcessor reconstruct(int radius, int scaleFactor, Point sideCenter, HoloJProcessor hologram,
+                                             HoloJProcessor reference, Roi roi, boolean useButterworth) {
+        int width = hologram.getWidth();
+        int height = hologram.getHeight();
+        Rectangle r = roi.getBounds().intersection(new Rectangle(0, 0, width, height));
+        if (r.isEmpty())
+            throw new IndexOutOfBoundsException("reconstruct: roi is outside the hologram.");
+        // square window, large enough for the region padded by the ringing of the sideband filter, and the transform.
+        int margin = KERNEL_WIDTHS*(int)Math.ceil((double)Math.max(width, height)/Math.max(1, radius));
+        int side = Math.max(r.width, r.height)+2*margin;
+        side = Math.max(side, 2*scaleFactor);
+        // an even multiple of scaleFactor, on the pixel grid of the full frame reconstruction.
+        side = goodLength(side, Math.min(width, height), ((scaleFactor & 1) == 0) ? scaleFactor : 2*scaleFactor);
+        // near the edges the window wraps around, as the full frame transform does.
+        Rectangle window = new Rectangle(Math.floorDiv(r.x+r.width/2-side/2, scaleFactor)*scaleFactor,
+                                         Math.floorDiv(r.y+r.height/2-side/2, scaleFactor)*scaleFactor, side, side);
+
+        double centerX = side/2 + (sideCenter.x-width/2)*(double)side/width;
+        double centerY = side/2 + (sideCenter.y-height/2)*(double)side/height;
+        Point center = new Point((int)Math.round(centerX), (int)Math.round(centerY));
+        int windowRadius = Math.max(1, (int)Math.round(radius*(double)side/Math.max(width, height)));
+
+        HoloJProcessor rec;
+        if (reference != null) {
+            // the division by the reference cancels the carrier, rounding included.
+            rec = HoloJUtils.reconstruct(windowRadius, scaleFactor, center, copy(hologram, window),
+                                         copy(reference, window), useButterworth);
+        } else {
+            rec = HoloJUtils.reconstruct(windowRadius, scaleFactor, center, copy(hologram, window), useButterworth);
+            HoloJSidebandLocator.removeTilt(rec, centerX-center.x, centerY-center.y);
+        }
+        // from window pixels to reconstructed pixels.
+        double f = (double)rec.getWidth()/side;
+        int x0 = (int)Math.floor((r.x-window.x)*f);
+        int y0 = (int)Math.floor((r.y-window.y)*f);
+        int x1 = Math.min(rec.getWidth(), (int)Math.ceil((r.x+r.width-window.x)*f));
+        int y1 = Math.min(rec.getHeight(), (int)Math.ceil((r.y+r.height-window.y)*f));
+        return crop(rec, new Rectangle(x0, y0, Math.max(1, x1-x0), Math.max(1, y1-y0)));
+    }
+
+   /**
+    * Returns the region selected by roi of field propagated by distance, as HoloJUtils.propogatefunc would
+    * return it for the whole field. Only the region padded by twice the spread of the Fresnel kernel,
+    * wavelength*distance/(dx*dx) pixels on each side, is transformed. The field is left untouched.
+    *
+    * @param field         the field to propagate.
+    * @param roi           the region of interest, in field pixels.
+    * @param dx            pixel size along X.
+    * @param dy            pixel size along Y.
+    * @param distance      propagation distance.
+    * @param wavelength    wavelength of the illumination.
+    * @return the propagated field of the region.
+    */
+    public static HoloJProcessor propagate(HoloJProcessor field, Roi roi, double dx, double dy, double distance, double wavelength) {
+        int width = field.getWidth();
+        int height = field.getHeight();
+        Rectangle r = roi.getBounds().intersection(new Rectangle(0, 0, width, height));
+        if (r.isEmpty())
+            throw new IndexOutOfBoundsException("propagate: roi is outside the field.");
+        int padX = (int)Math.ceil(wavelength*Math.abs(distance)/(dx*dx));
+        int padY = (int)Math.ceil(wavelength*Math.abs(distance)/(dy*dy));
+        int w = goodLength(Math.min(width, r.width+2*padX), width, 1);
+        int h = goodLength(Math.min(height, r.height+2*padY), height, 1);
+        Rectangle window = new Rectangle(clamp(r.x+r.width/2-w/2, 0, width-w),
+                                         clamp(r.y+r.height/2-h/2, 0, height-h), w, h);
+        HoloJProcessor propagated = HoloJUtils.propogatefunc(crop(field, window), w, h, dx, dy, distance, wavelength);
+        return crop(propagated, new Rectangle(r.x-window.x, r.y-window.y, r.width, r.height));
+    }
+
+   /**
+    * Returns a copy of the pixels of processor inside bounds.
+    *
+    * @param processor  the source.
+    * @param bounds     the copied region, inside the image.
+    * @return a new HoloJProcessor, with the origin of processor.
+    */
+    public static HoloJProcessor crop(HoloJProcessor processor, Rectangle bounds) {
+        int width = processor.getWidth();
+        if ((bounds.x < 0) || (bounds.y < 0) || (bounds.x+bounds.width > width) ||
+            (bounds.y+bounds.height > processor.getHeight()) || bounds.isEmpty())
+            throw new IndexOutOfBoundsException("crop: bounds are outside the image.");
+        return copy(processor, bounds);
+    }
+
+    // copy of the pixels of processor inside bounds, which may cross the image edges: the image is then
+    // repeated, as the Fourier transform sees it.
+    private static HoloJProcessor copy(HoloJProcessor processor, Rectangle bounds) {
+        int width = processor.getWidth();
+        int height = processor.getHeight();
+        double[] pixels = new double[bounds.width*bounds.height << 1];
+        for (int row=0, pos=0; row<bounds.height; row++) {
+            int y = Math.floorMod(bounds.y+row, height);
+            for (int col=0; col<bounds.width; col++, pos+=2) {
+                int src = y*width+Math.floorMod(bounds.x+col, width);
+                pixels[pos] = processor.getReal(src);
+                pixels[pos+1] = processor.getComplex(src);
+            }
+        }
+        HoloJProcessor result = new HoloJProcessor(bounds.width, bounds.height, pixels);
+        if (processor.isRealOrigin()) result.setRealOrigin();
+        if (processor.getCalibration() != null) result.setCalibration(processor.getCalibration());
+        return result;
+    }
+
+    // smallest multiple of step from n up to max whose prime factors are all small, or the largest multiple of step up to n and max.
+    private static int goodLength(int n, int max, int step) {
+        for (int m=(n+step-1)/step*step; m<=max; m+=step) {
+            int k = m;
+            for (int p=2; p<=PREFERRED_RADIX; p++)
+                while (k % p == 0) k /= p;
+            if (k == 1) return m;
+        }
+        return Math.max(step, Math.min(n, max)/step*step);
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
@@ -0,0 +1,74 @@
+package holoj;
+
+import java.nio.DoubleBuffer;
+
+/**
+ * Interface HoloJTransfer is a transfer function multiplied in place into a centered spectrum,
+ * as returned by doFFT(). It is implemented by the propagation kernels, HoloJTransferFunction
+ * for the Fresnel approximation and HoloJAngularSpectrum for the angular spectrum method.
+ *
+ * @author Brian Mitchell
+ * @version 1.0
+ */
+public interface HoloJTransfer {
+
+   /**
+    * Multiplies in place split real and imaginary pixels by the transfer function.
+    *
+    * @param real       real parts of the spectrum.
+    * @param complex    imaginary parts of the spectrum.
+    */
+    void apply(double[] real, double[] complex);
+
+   /**
+    * Multiplies in place RE1,CO1,RE2,CO2... pixels by the transfer function.
+    *
+    * @param pixels     interleaved spectrum.
+    */
+    void apply(double[] pixels);
+
+   /**
+    * Multiplies in place the RE1,CO1,RE2,CO2... pixels of an image stored from offset on,
+    * such as one frame of a HoloJStackProcessor.
+    *
+    * @param pixels     array holding the interleaved spectrum.
+    * @param offset     index of the real part of the first pixel.
+    */
+    void apply(double[] pixels, int offset);
+
+   /**
+    * Multiplies in place RE1,CO1,RE2,CO2... pixels held in a buffer, such as the direct buffer
+    * of an off-heap HoloJProcessor, one row at a time.
+    *
+    * @param pixels     interleaved spectrum.
+    */
+    void apply(DoubleBuffer pixels);
+
+   /**
+    * Multiplies in place single precision RE1,CO1,RE2,CO2... pixels by the transfer function.
+    *
+    * @param pixels     interleaved spectrum.
+    */
+    void apply(float[] pixels);
+
+   /**
+    *	Returns the width of the transfer function.
+    *
+    *	@return the width.
+    */
+    int getWidth();
+
+   /**
+    *	Returns the height of the transfer function.
+    *
+    *	@return the height.
+    */
+    int getHeight();
+
+   /**
+    *	Returns the number of bytes held by the transfer function, as counted by HoloJChirpCache.
+    *
+    *	@return the size in bytes.
+    */
+    long getMemorySize();
+}
@@ -0,0 +1,229 @@
+package holoj;
+
+import java.nio.DoubleBuffer;
+
+/**
+ * Class HoloJTransferFunction holds the Fresnel transfer function exp(-i*PI*wavelength*distance*(fx^2+fy^2))
+ * in separable form. Since the phase is a sum of a term in fx and a term in fy, the 2D function is the
+ * product of a row vector and a column vector: only width+height cosines and sines are evaluated,
+ * and each pixel is then obtained with one complex multiplication.
+ * Frequencies are centered, as in the spectra returned by doFFT().
+ *
+ * @author Brian Mitchell
+ * @version 1.0
+ */
+public final class HoloJTransferFunction implements HoloJTransfer {
+
+    private final int width;
+    private final int height;
+    // factor depending on the column only.
+    private final double[] xReal;
+    private final double[] xComplex;
+    // factor depending on the row only.
+    private final double[] yReal;
+    private final double[] yComplex;
+
+   /**
+    * Creates the separable transfer function of a propagation.
+    *
+    * @param width      image width.
+    * @param height     image height.
+    * @param dx         pixel size along X.
+    * @param dy         pixel size along Y.
+    * @param distance   propagation distance.
+    * @param wavelength wavelength of the illumination.
+    */
+    public HoloJTransferFunction(int width, int height, double dx, double dy, double distance, double wavelength) {
+        if (width < 1)
+            throw new ArrayStoreException("Constructor: width < 1.");
+        if (height < 1)
+            throw new ArrayStoreException("Constructor: height < 1.");
+        this.width = width;
+        this.height = height;
+        double k = -1*Math.PI*wavelength*distance;
+        xReal = new double[width];
+        xComplex = new double[width];
+        for (int col=0; col<width; col++) {
+            double fx = (double)(col - width/2)/(width*dx);
+            double phase = k*fx*fx;
+            xReal[col] = Math.cos(phase);
+            xComplex[col] = Math.sin(phase);
+        }
+        yReal = new double[height];
+        yComplex = new double[height];
+        for (int row=0; row<height; row++) {
+            double fy = (double)(row - height/2)/(height*dy);
+            double phase = k*fy*fy;
+            yReal[row] = Math.cos(phase);
+            yComplex[row] = Math.sin(phase);
+        }
+    } // Constructor (width, height, dx, dy, distance, wavelength)
+
+   /**
+    * Writes the 2D transfer function into split real and imaginary arrays.
+    *
+    * @param real       destination of the real parts, at least width*height long.
+    * @param complex    destination of the imaginary parts, at least width*height long.
+    */
+    public void fill(double[] real, double[] complex) {
+        if ((real.length < width*height) || (complex.length < width*height))
+            throw new IndexOutOfBoundsException("fill: arrays are smaller than width*height.");
+        for (int row=0, pos=0; row<height; row++) {
+            double yr = yReal[row];
+            double yi = yComplex[row];
+            for (int col=0; col<width; col++, pos++) {
+                real[pos] = xReal[col]*yr - xComplex[col]*yi;
+                complex[pos] = xReal[col]*yi + xComplex[col]*yr;
+            }
+        }
+    }
+
+   /**
+    * Writes the 2D transfer function into a single precision RE1,CO1,RE2,CO2... array.
+    *
+    * @param pixels     destination, at least 2*width*height long.
+    */
+    public void fill(float[] pixels) {
+        if (pixels.length < (width*height << 1))
+            throw new IndexOutOfBoundsException("fill: array is smaller than width*height.");
+        for (int row=0, pos=0; row<height; row++) {
+            double yr = yReal[row];
+            double yi = yComplex[row];
+            for (int col=0; col<width; col++, pos+=2) {
+                pixels[pos] = (float)(xReal[col]*yr - xComplex[col]*yi);
+                pixels[pos+1] = (float)(xReal[col]*yi + xComplex[col]*yr);
+            }
+        }
+    }
+
+   /**
+    * Multiplies in place split real and imaginary pixels by the transfer function.
+    * The 2D function is formed on the fly from the row and column factors, so nothing is allocated.
+    *
+    * @param real       real parts of the spectrum.
+    * @param complex    imaginary parts of the spectrum.
+    */
+    public void apply(double[] real, double[] complex) {
+        if ((real.length < width*height) || (complex.length < width*height))
+            throw new IndexOutOfBoundsException("apply: arrays are smaller than width*height.");
+        for (int row=0, pos=0; row<height; row++) {
+            double yr = yReal[row];
+            double yi = yComplex[row];
+            for (int col=0; col<width; col++, pos++) {
+                double tr = xReal[col]*yr - xComplex[col]*yi;
+                double ti = xReal[col]*yi + xComplex[col]*yr;
+                double re = real[pos];
+                double im = complex[pos];
+                real[pos] = re*tr - im*ti;
+                complex[pos] = re*ti + im*tr;
+            }
+        }
+    }
+
+   /**
+    * Multiplies in place RE1,CO1,RE2,CO2... pixels by the transfer function.
+    *
+    * @param pixels     interleaved spectrum.
+    */
+    public void apply(double[] pixels) {
+        apply(pixels, 0);
+    }
+
+   /**
+    * Multiplies in place the RE1,CO1,RE2,CO2... pixels of an image stored from offset on.
+    *
+    * @param pixels     array holding the interleaved spectrum.
+    * @param offset     index of the real part of the first pixel.
+    */
+    public void apply(double[] pixels, int offset) {
+        if ((offset < 0) || (pixels.length-offset < (width*height << 1)))
+            throw new IndexOutOfBoundsException("apply: array is smaller than offset+width*height.");
+        for (int row=0, pos=offset; row<height; row++) {
+            double yr = yReal[row];
+            double yi = yComplex[row];
+            for (int col=0; col<width; col++, pos+=2) {
+                double tr = xReal[col]*yr - xComplex[col]*yi;
+                double ti = xReal[col]*yi + xComplex[col]*yr;
+                double re = pixels[pos];
+                double im = pixels[pos+1];
+                pixels[pos] = re*tr - im*ti;
+                pixels[pos+1] = re*ti + im*tr;
+            }
+        }
+    }
+
+   /**
+    * Multiplies in place RE1,CO1,RE2,CO2... pixels held in a buffer, one row at a time.
+    *
+    * @param pixels     interleaved spectrum.
+    */
+    public void apply(DoubleBuffer pixels) {
+        if (pixels.capacity() < (width*height << 1))
+            throw new IndexOutOfBoundsException("apply: buffer is smaller than width*height.");
+        int rowLength = width << 1;
+        double[] line = new double[rowLength];
+        for (int row=0, offset=0; row<height; row++, offset+=rowLength) {
+            double yr = yReal[row];
+            double yi = yComplex[row];
+            HoloJBufferPool.get(pixels, offset, line, 0, rowLength);
+            for (int col=0, pos=0; col<width; col++, pos+=2) {
+                double tr = xReal[col]*yr - xComplex[col]*yi;
+                double ti = xReal[col]*yi + xComplex[col]*yr;
+                double re = line[pos];
+                double im = line[pos+1];
+                line[pos] = re*tr - im*ti;
+                line[pos+1] = re*ti + im*tr;
+            }
+            HoloJBufferPool.put(pixels, offset, line, 0, rowLength);
+        }
+    }
+
+   /**
+    * Multiplies in place single precision RE1,CO1,RE2,CO2... pixels by the transfer function.
+    *
+    * @param pixels     interleaved spectrum.
+    */
+    public void apply(float[] pixels) {
+        if (pixels.length < (width*height << 1))
+            throw new IndexOutOfBoundsException("apply: array is smaller than width*height.");
+        for (int row=0, pos=0; row<height; row++) {
+            double yr = yReal[row];
+            double yi = yComplex[row];
+            for (int col=0; col<width; col++, pos+=2) {
+                double tr = xReal[col]*yr - xComplex[col]*yi;
+                double ti = xReal[col]*yi + xComplex[col]*yr;
+                double re = pixels[pos];
+                double im = pixels[pos+1];
+                pixels[pos] = (float)(re*tr - im*ti);
+                pixels[pos+1] = (float)(re*ti + im*tr);
+            }
+        }
+    }
+
+   /**
+    *	Returns the width of the transfer function.
+    *
+    *	@return the width.
+    */
+    public int getWidth() {
+        return width;
+    }
+
+   /**
+    *	Returns the height of the transfer function.
+    *
+    *	@return the height.
+    */
+    public int getHeight() {
+        return height;
+    }
+
+   /**
+    *	Returns the number of bytes held by the transfer function: width+height complex factors.
+    *
+    *	@return the size in bytes.
+    */
+    public long getMemorySize() {
+        return (long)(width+height) << 4;
+    }
+}
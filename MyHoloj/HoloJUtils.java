@@ -15,8 +15,16 @@ import java.lang.*;
  */ 
 public final class HoloJUtils {
 	
-    // radius of the excluded region in sideband center search.
-    private static final int EXCLUDED_RADIUS = 20;
+    /** Propagation with the Fresnel chirp, HoloJTransferFunction. */
+    public static final int FRESNEL = 0;
+    /** Propagation with the band-limited angular spectrum, HoloJAngularSpectrum. */
+    public static final int ANGULAR_SPECTRUM = 1;
+
+    // operations of combineInto().
+    private static final int SUM = 0;
+    private static final int SUBTRACT = 1;
+    private static final int MULTIPLY = 2;
+    private static final int DIVIDE = 3;
 
    /**
     * Calculates the modulus of complex number with real and imaginary parts passed as arguments.
@@ -99,7 +107,8 @@ public final class HoloJUtils {
 	int ndim=nn.length;
 	ntot = data.length >> 1;
 	nprev=1;
-	if (isign == -1) swap(data, nn[0]);
+	int rowLength = nn[ndim-1];
+	if (isign == -1) inverseSwap(data, rowLength, ntot/rowLength);
 	for (idim=ndim-1;idim>=0;idim--) {
 	    n=nn[idim];
 	    nrem=ntot/(n*nprev);
@@ -162,12 +171,25 @@ public final class HoloJUtils {
 	for (int off=0; off<ntot<<1; off++) {
             data[off] *= factor;
 	}
-	if (isign == 1) swap(data, nn[0]);
+	if (isign == 1) swap(data, rowLength, ntot/rowLength);
 	return;
     } 
     
+   /**
+    * Computes the Fast Fourier Transform of data passed as argument, for any width and height.
+    * It uses the mixed-radix engine of HoloJFFT, so data does not need to be padded to a power of two.
+    *
+    * @param data       data to be transformed in row-major mode and RE1,CO1,RE2,CO2... sequence.
+    * @param width      length of a row.
+    * @param height     number of rows.
+    * @param isign      forward or reverse direction.
+    */
+    public static void c2cfft(double[] data, int width, int height, int isign) {
+        HoloJFFT.transform(data, width, height, isign);
+    }
+
     /**
-     * Swap the quadrants of data.
+     * Swap the quadrants of square data. See swap(data, width, height) for other sizes.
      *
      * @param data      array of data to be swapped.
      * @param nx        length of a row.
@@ -202,6 +224,116 @@ public final class HoloJUtils {
         return;
     }
     
+    /**
+     * Swap the quadrants of data of any size, moving the zero frequency to the center.
+     *
+     * @param data      array of data to be swapped, in RE1,CO1,RE2,CO2... sequence.
+     * @param width     length of a row.
+     * @param height    number of rows.
+     */
+    public static void swap(double[] data, int width, int height) {
+        if (((width | height) & 1) == 0) swapEven(data, width, height);
+        else roll(data, width, height, width >> 1, height >> 1);
+    }
+
+    /**
+     * Undo the quadrant swap performed by swap(data, width, height).
+     *
+     * @param data      array of data to be swapped, in RE1,CO1,RE2,CO2... sequence.
+     * @param width     length of a row.
+     * @param height    number of rows.
+     */
+    public static void inverseSwap(double[] data, int width, int height) {
+        if (((width | height) & 1) == 0) swapEven(data, width, height);
+        else roll(data, width, height, width - (width >> 1), height - (height >> 1));
+    }
+
+    /**
+     * Swap the quadrants of single precision data of any size, moving the zero frequency to the center.
+     *
+     * @param data      array of data to be swapped, in RE1,CO1,RE2,CO2... sequence.
+     * @param width     length of a row.
+     * @param height    number of rows.
+     */
+    public static void swap(float[] data, int width, int height) {
+        if (((width | height) & 1) == 0) swapEven(data, width, height);
+        else roll(data, width, height, width >> 1, height >> 1);
+    }
+
+    /**
+     * Undo the quadrant swap performed by swap(float[] data, width, height).
+     *
+     * @param data      array of data to be swapped, in RE1,CO1,RE2,CO2... sequence.
+     * @param width     length of a row.
+     * @param height    number of rows.
+     */
+    public static void inverseSwap(float[] data, int width, int height) {
+        if (((width | height) & 1) == 0) swapEven(data, width, height);
+        else roll(data, width, height, width - (width >> 1), height - (height >> 1));
+    }
+
+    private static void swapEven(float[] data, int width, int height) {
+        int hWidth = width >> 1;
+        int hHeight = height >> 1;
+        float tmp;
+        for (int row=0; row<hHeight; row++)
+            for (int col=0; col<width; col++) {
+                int i1 = (row*width+col) << 1;
+                int i2 = ((row+hHeight)*width+(col+hWidth)%width) << 1;
+                tmp = data[i1];
+                data[i1] = data[i2];
+                data[i2] = tmp;
+                tmp = data[i1+1];
+                data[i1+1] = data[i2+1];
+                data[i2+1] = tmp;
+            }
+    }
+
+    private static void roll(float[] data, int width, int height, int shiftX, int shiftY) {
+        float[] src = new float[width*height << 1];
+        System.arraycopy(data, 0, src, 0, src.length);
+        for (int row=0; row<height; row++) {
+            int dstRow = (row+shiftY)%height;
+            for (int col=0; col<width; col++) {
+                int i1 = (row*width+col) << 1;
+                int i2 = (dstRow*width+(col+shiftX)%width) << 1;
+                data[i2] = src[i1];
+                data[i2+1] = src[i1+1];
+            }
+        }
+    }
+
+    private static void swapEven(double[] data, int width, int height) {
+        int hWidth = width >> 1;
+        int hHeight = height >> 1;
+        double tmp;
+        for (int row=0; row<hHeight; row++)
+            for (int col=0; col<width; col++) {
+                int i1 = (row*width+col) << 1;
+                int i2 = ((row+hHeight)*width+(col+hWidth)%width) << 1;
+                tmp = data[i1];
+                data[i1] = data[i2];
+                data[i2] = tmp;
+                tmp = data[i1+1];
+                data[i1+1] = data[i2+1];
+                data[i2+1] = tmp;
+            }
+    }
+
+    private static void roll(double[] data, int width, int height, int shiftX, int shiftY) {
+        double[] src = new double[width*height << 1];
+        System.arraycopy(data, 0, src, 0, src.length);
+        for (int row=0; row<height; row++) {
+            int dstRow = (row+shiftY)%height;
+            for (int col=0; col<width; col++) {
+                int i1 = (row*width+col) << 1;
+                int i2 = (dstRow*width+(col+shiftX)%width) << 1;
+                data[i2] = src[i1];
+                data[i2+1] = src[i1+1];
+            }
+        }
+    }
+
     /**
      *  Creates a Butterworth filter mask and store it as double array.
      *
@@ -266,22 +398,7 @@ public final class HoloJUtils {
      * @return the maximum position as a Point.
      */		
     public static Point getMaximumPosition(HoloJProcessor processor){
-        double maxVal = Double.NEGATIVE_INFINITY;
-        Point maxPos = new Point(0,0);
-        double curVal = 0.0;
-        double[] realPixels = processor.getRealPixelsArray();
-        double[] complexPixels = processor.getComplexPixelsArray();
-        int height = processor.getHeight();
-        int width = processor.getWidth();
-        for (int row = 0; row < height; row++)
-            for (int col = 0; col < width; col++) {
-                curVal = modulus(realPixels[row*width+col], complexPixels[row*width+col]);
-                if (maxVal < curVal) {
-                    maxVal = curVal;
-                    maxPos.setLocation(col,row);									
-                }	
-            }
-        return maxPos;
+        return processor.getMaximumPosition();
     }// getMaximumPosition()
 	
    /**
@@ -292,28 +409,7 @@ public final class HoloJUtils {
      * @return the maximum position.
      */		
     public static Point getMaximumPosition(HoloJProcessor processor, Roi selection){
-        double maxVal = Double.NEGATIVE_INFINITY;
-        Point maxPos = new Point(0,0);
-        double curVal = 0.0;
-        double[] realPixels = processor.getRealPixelsArray();
-        double[] complexPixels = processor.getComplexPixelsArray();
-        int height = processor.getHeight();
-        int width = processor.getWidth();
-        for (int row = 0; row < height; row++)
-            for (int col = 0; col < width; col++) {
-                if (((row >= selection.getBounds().y)&&
-                    (row <= selection.getBounds().y+selection.getBounds().height)) &&
-                    ((col >= selection.getBounds().x) &&
-                    (col <= selection.getBounds().x+selection.getBounds().width))) {
-                        curVal = modulus(realPixels[row*width+col], 
-                                    complexPixels[row*width+col]);
-                        if (maxVal < curVal) {
-                            maxVal = curVal;
-                            maxPos.setLocation(col,row);									
-                        }	
-                   }
-            }
-        return maxPos;
+        return processor.getMaximumPosition(selection);
     }// getMaximumPosition()
 	
    /**
@@ -325,38 +421,7 @@ public final class HoloJUtils {
     * @return the sideband center position.
     */		
     public static Point getSidebandCenter(HoloJProcessor processor, int side) {
-        if (processor.isSpectrumDomain() == false) 
-            throw new ArrayStoreException("getSidebandCenter: image is not in Fourier domain.");
-        double maxValue = Double.NEGATIVE_INFINITY;
-        Point maxPos = new Point(0,0);
-        double[] realPixels = processor.getRealPixelsArray();
-        double[] complexPixels = processor.getComplexPixelsArray();
-        int height = processor.getHeight();
-        int width = processor.getWidth();
-        int xC = width >> 1;
-        int yC = height >> 1; 
-        double curVal = 0;
-        if ( side >= 0 ) {
-            for (int row = 0; row < (height >> 1); row++)
-                for (int col = 0; col < width; col++) {
-                    curVal = modulus(realPixels[row*width+col], complexPixels[row*width+col]); 
-                    if ((((row-xC)*(row-xC)+(col-yC)*(col-yC) ) > EXCLUDED_RADIUS*EXCLUDED_RADIUS ) && ( maxValue < curVal )) {
-                        maxValue = curVal;
-                        maxPos.setLocation(col,row);	
-                    }
-                }
-        } else {
-            for (int row = height >> 1; row < height; row++)
-                for (int col = 0; col < width; col++) {
-                    curVal = modulus(realPixels[row*width+col], 
-                            complexPixels[row*width+col]); 
-                    if ((((row-xC)*(row-xC) +(col-yC)*(col-yC) ) > EXCLUDED_RADIUS*EXCLUDED_RADIUS ) && ( maxValue < curVal )) {
-                        maxValue = curVal;
-                        maxPos.setLocation(col,row);	
-                    }
-                }
-        }
-        return maxPos;	
+        return processor.getSidebandCenter(side);
     }// getSidebandCenter()
         
    /**
@@ -449,18 +514,7 @@ public final class HoloJUtils {
     public static HoloJProcessor sum(HoloJProcessor operand1, HoloJProcessor operand2){
         if (operand1.getSize() != operand2.getSize()) 
             throw new IndexOutOfBoundsException("sum: sizes must be equal.");
-        double[] realPixels1 = operand1.getRealPixelsArray();
-        double[] realPixels2 = operand2.getRealPixelsArray();
-        double[] complexPixels1 = operand1.getComplexPixelsArray();
-        double[] complexPixels2 = operand2.getComplexPixelsArray();
-        double[] resultReal = new double[operand1.getSize()];
-        double[] resultComplex = new double[operand1.getSize()];
-        for (int i=0; i<operand1.getSize(); i++) {
-            resultReal[i]=realPixels1[i]+realPixels2[i];
-            resultComplex[i]=complexPixels1[i]+complexPixels2[i];
-        }
-        HoloJProcessor result = new HoloJProcessor(resultReal, resultComplex, operand1.getWidth(), operand1.getHeight());
-        return result;
+        return sumInto(operand1, operand2, new HoloJProcessor(operand1.getWidth(), operand1.getHeight()));
     }
    	
    /**
@@ -473,18 +527,7 @@ public final class HoloJUtils {
     public static HoloJProcessor subtract(HoloJProcessor operand1, HoloJProcessor operand2){
         if (operand1.getSize() != operand2.getSize()) 
             throw new IndexOutOfBoundsException("subtract: sizes must be equal.");
-        double[] realPixels1 = operand1.getRealPixelsArray();
-        double[] realPixels2 = operand2.getRealPixelsArray();
-        double[] complexPixels1 = operand1.getComplexPixelsArray();
-        double[] complexPixels2 = operand2.getComplexPixelsArray();
-        double[] resultReal = new double[operand1.getSize()];
-        double[] resultComplex = new double[operand1.getSize()];
-        for (int i=0; i<operand1.getSize(); i++) {
-            resultReal[i]=realPixels1[i]-realPixels2[i];
-            resultComplex[i]=complexPixels1[i]-complexPixels2[i];
-        }
-        HoloJProcessor result = new HoloJProcessor(resultReal, resultComplex, operand1.getWidth(), operand1.getHeight());
-        return result;	
+        return subtractInto(operand1, operand2, new HoloJProcessor(operand1.getWidth(), operand1.getHeight()));
     }
 
    /**
@@ -495,20 +538,9 @@ public final class HoloJUtils {
     * @return the resulting HoloJProcessor.
     */  
     public static HoloJProcessor multiply(HoloJProcessor operand1, HoloJProcessor operand2){
-            if (operand1.getSize() != operand2.getSize()) 
-                    throw new IndexOutOfBoundsException("multiply: sizes must be equal.");
-            double[] realPixels1 = operand1.getRealPixelsArray();
-            double[] realPixels2 = operand2.getRealPixelsArray();
-            double[] complexPixels1 = operand1.getComplexPixelsArray();
-            double[] complexPixels2 = operand2.getComplexPixelsArray();
-            double[] resultReal = new double[operand1.getSize()];
-            double[] resultComplex = new double[operand1.getSize()];
-            for (int i=0; i<operand1.getSize(); i++) {
-                    resultReal[i] = realPixels1[i]*realPixels2[i]-complexPixels1[i]*complexPixels2[i];
-                    resultComplex[i] = realPixels1[i]*complexPixels2[i]+realPixels2[i]*complexPixels1[i];	
-            }
-            HoloJProcessor result = new HoloJProcessor(resultReal, resultComplex, operand1.getWidth(), operand1.getHeight());
-            return result;
+        if (operand1.getSize() != operand2.getSize()) 
+            throw new IndexOutOfBoundsException("multiply: sizes must be equal.");
+        return multiplyInto(operand1, operand2, new HoloJProcessor(operand1.getWidth(), operand1.getHeight()));
     }
    	
    /**
@@ -521,21 +553,140 @@ public final class HoloJUtils {
     public static HoloJProcessor divide(HoloJProcessor operand1, HoloJProcessor operand2){
         if (operand1.getSize() != operand2.getSize()) 
             throw new IndexOutOfBoundsException("divide: sizes must be equal.");
-        double[] realPixels1 = operand1.getRealPixelsArray();
-        double[] realPixels2 = operand2.getRealPixelsArray();
-        double[] complexPixels1 = operand1.getComplexPixelsArray();
-        double[] complexPixels2 = operand2.getComplexPixelsArray();
-        double[] resultReal = new double[operand1.getSize()];
-        double[] resultComplex = new double[operand1.getSize()];
-        for (int i=0; i<operand1.getSize(); i++) {
-            resultReal[i] = (realPixels1[i]*realPixels2[i]+complexPixels1[i]*complexPixels2[i])/
-                          (realPixels2[i]*realPixels2[i]+complexPixels2[i]*complexPixels2[i]);
-            resultComplex[i] = (realPixels2[i]*complexPixels1[i]-realPixels1[i]*complexPixels2[i])/
-                          (realPixels2[i]*realPixels2[i]+complexPixels2[i]*complexPixels2[i]);	
+        return divideInto(operand1, operand2, new HoloJProcessor(operand1.getWidth(), operand1.getHeight()));
+    }
+
+   /**
+    * Adds the complex pixels of operand1 and operand2 into dest, without allocating.
+    * Dest may be one of the operands, for an in-place sum.
+    *
+    * @param operand1       the HoloJProcessor first operand.
+    * @param operand2       the HoloJProcessor second operand.
+    * @param dest           the HoloJProcessor receiving the result, of the same size.
+    * @return dest.
+    */
+    public static HoloJProcessor sumInto(HoloJProcessor operand1, HoloJProcessor operand2, HoloJProcessor dest){
+        return combineInto(operand1, operand2, dest, SUM, "sumInto");
+    }
+
+   /**
+    * Subtracts the complex pixels of operand2 from operand1 into dest, without allocating.
+    * Dest may be one of the operands, for an in-place difference.
+    *
+    * @param operand1       the HoloJProcessor first operand.
+    * @param operand2       the HoloJProcessor second operand.
+    * @param dest           the HoloJProcessor receiving the result, of the same size.
+    * @return dest.
+    */
+    public static HoloJProcessor subtractInto(HoloJProcessor operand1, HoloJProcessor operand2, HoloJProcessor dest){
+        return combineInto(operand1, operand2, dest, SUBTRACT, "subtractInto");
+    }
+
+   /**
+    * Multiplies the complex pixels of operand1 by those of operand2 into dest, without allocating.
+    * Dest may be one of the operands, for an in-place product.
+    *
+    * @param operand1       the HoloJProcessor first operand.
+    * @param operand2       the HoloJProcessor second operand.
+    * @param dest           the HoloJProcessor receiving the result, of the same size.
+    * @return dest.
+    */
+    public static HoloJProcessor multiplyInto(HoloJProcessor operand1, HoloJProcessor operand2, HoloJProcessor dest){
+        return combineInto(operand1, operand2, dest, MULTIPLY, "multiplyInto");
+    }
+
+   /**
+    * Divides the complex pixels of operand1 by those of operand2 into dest, without allocating.
+    * Dest may be one of the operands, for an in-place quotient.
+    *
+    * @param operand1       the HoloJProcessor first operand.
+    * @param operand2       the HoloJProcessor second operand.
+    * @param dest           the HoloJProcessor receiving the result, of the same size.
+    * @return dest.
+    */
+    public static HoloJProcessor divideInto(HoloJProcessor operand1, HoloJProcessor operand2, HoloJProcessor dest){
+        return combineInto(operand1, operand2, dest, DIVIDE, "divideInto");
+    }
+
+    // pixel by pixel operation of the *Into methods. Each pixel is read before it is written, so dest
+    // may alias an operand. The storages are used as they are: converting them would allocate.
+    private static HoloJProcessor combineInto(HoloJProcessor operand1, HoloJProcessor operand2, HoloJProcessor dest, int operation, String name){
+        int size = operand1.getSize();
+        if ((operand2.getSize() != size) || (dest.getSize() != size))
+            throw new IndexOutOfBoundsException(name+": sizes must be equal.");
+        if (operand1.isInterleaved() && operand2.isInterleaved() && dest.isInterleaved()) {
+            double[] p1 = operand1.interleavedStorage();
+            double[] p2 = operand2.interleavedStorage();
+            double[] d = dest.interleavedStorage();
+            HoloJKernels kernels = HoloJKernels.get();
+            switch (operation) {
+                case SUM: kernels.add(p1, p2, d, size); break;
+                case SUBTRACT: kernels.subtract(p1, p2, d, size); break;
+                case MULTIPLY: kernels.multiply(p1, p2, d, size); break;
+                default: kernels.divide(p1, p2, d, size);
+            }
+        } else if (!operand1.isInterleaved() && !operand2.isInterleaved() && !dest.isInterleaved()
+                   && !operand1.isOffHeap() && !operand2.isOffHeap() && !dest.isOffHeap()) {
+            double[] r1 = operand1.realStorage();
+            double[] c1 = operand1.complexStorage();
+            double[] r2 = operand2.realStorage();
+            double[] c2 = operand2.complexStorage();
+            double[] dr = dest.realStorage();
+            double[] dc = dest.complexStorage();
+            if (dc == null) {
+                // a real image has no imaginary array yet.
+                dc = HoloJBufferPool.borrow(size, false);
+                dest.setComplexStorage(dc);
+                if (operand1 == dest) c1 = dc;
+                if (operand2 == dest) c2 = dc;
+            }
+            if ((c1 != null) && (c2 != null)) {
+                HoloJKernels kernels = HoloJKernels.get();
+                switch (operation) {
+                    case SUM: kernels.add(r1, c1, r2, c2, dr, dc, size); break;
+                    case SUBTRACT: kernels.subtract(r1, c1, r2, c2, dr, dc, size); break;
+                    case MULTIPLY: kernels.multiply(r1, c1, r2, c2, dr, dc, size); break;
+                    default: kernels.divide(r1, c1, r2, c2, dr, dc, size);
+                }
+            } else {
+                for (int i=0; i<size; i++)
+                    combine(r1[i], (c1 != null) ? c1[i] : 0.0, r2[i], (c2 != null) ? c2[i] : 0.0, dr, i, dc, i, operation);
+            }
+        } else {
+            double[] pixel = new double[2];
+            for (int i=0; i<size; i++) {
+                combine(operand1.getReal(i), operand1.getComplex(i), operand2.getReal(i), operand2.getComplex(i),
+                        pixel, 0, pixel, 1, operation);
+                dest.setPixel(i, pixel[0], pixel[1]);
+            }
         }
-        HoloJProcessor result = new HoloJProcessor(resultReal, resultComplex, operand1.getWidth(), operand1.getHeight());
-        return result;
+        dest.setComplexOrigin();
+        return dest;
     }
+
+    // (re1 + i im1) op (re2 + i im2), written to real[realPos] and complex[complexPos].
+    private static void combine(double re1, double im1, double re2, double im2, double[] real, int realPos,
+                                double[] complex, int complexPos, int operation){
+        switch (operation) {
+            case SUM:
+                real[realPos] = re1+re2;
+                complex[complexPos] = im1+im2;
+                break;
+            case SUBTRACT:
+                real[realPos] = re1-re2;
+                complex[complexPos] = im1-im2;
+                break;
+            case MULTIPLY:
+                real[realPos] = re1*re2-im1*im2;
+                complex[complexPos] = re1*im2+re2*im1;
+                break;
+            default:
+                double den = re2*re2+im2*im2;
+                real[realPos] = (re1*re2+im1*im2)/den;
+                complex[complexPos] = (re2*im1-re1*im2)/den;
+        }
+    }
+
     /**
      * Returns an HoloJProcessor containing reconstructed data.
      * 
@@ -567,30 +718,62 @@ public final class HoloJUtils {
      * @return propogated HOLOJ Processor
      */
 	public static HoloJProcessor propogatefunc(HoloJProcessor hologram, int width, int height, double dx, double dy, double distance, double wavelength) {
-            //HoloJProcessor propagated = new HoloJProcessor(/*hologram.realPixels, hologram.complexPixels,*/ width, height);
-			//propagated.doFFT();
+            return propogatefunc(hologram, width, height, dx, dy, distance, wavelength, FRESNEL);
+    }
+
+    /**
+     * Propagates hologram by distance with the selected method, as propogatefunc does with the Fresnel chirp.
+     * The hologram is modified and returned.
+     *
+     * @param hologram      the field to propagate.
+     * @param width         image width.
+     * @param height        image height.
+     * @param dx            pixel size along X.
+     * @param dy            pixel size along Y.
+     * @param distance      propagation distance.
+     * @param wavelength    wavelength of the illumination.
+     * @param method        FRESNEL or ANGULAR_SPECTRUM.
+     * @return the propagated field.
+     */
+    public static HoloJProcessor propogatefunc(HoloJProcessor hologram, int width, int height, double dx, double dy, double distance, double wavelength, int method) {
 			hologram.doFFT();
-			HoloJProcessor chirp = new HoloJProcessor(width, height, dx, dy, distance, wavelength);//THIS returns a HOLOJPROCESSOR with math Done
-            hologram = multiply(chirp, hologram);
+			// the kernel is applied in place, without building it nor a product image.
+			hologram.applyTransferFunction(transferFunction(width, height, dx, dy, distance, wavelength, method));
 			hologram.doInverseFFT();
             return hologram;//the propogated HoloJprocessor
     }
 	
 	/*SAME METHOD AS LAST BUT PASSES REFERANCE TOO*/
 	public static HoloJProcessor propogatefunc(HoloJProcessor hologram, HoloJProcessor ref, int width, int height, double dx, double dy, double distance, double wavelength) {
-            HoloJProcessor propagated = new HoloJProcessor( width, height);
+            return propogatefunc(hologram, ref, width, height, dx, dy, distance, wavelength, FRESNEL);
+    }
+
+    /**
+     * Propagates hologram and ref by distance with the selected method, and returns ref divided by hologram.
+     *
+     * @param hologram      the field to propagate.
+     * @param ref           the reference field, propagated too.
+     * @param width         image width.
+     * @param height        image height.
+     * @param dx            pixel size along X.
+     * @param dy            pixel size along Y.
+     * @param distance      propagation distance.
+     * @param wavelength    wavelength of the illumination.
+     * @param method        FRESNEL or ANGULAR_SPECTRUM.
+     * @return the propagated field.
+     */
+    public static HoloJProcessor propogatefunc(HoloJProcessor hologram, HoloJProcessor ref, int width, int height, double dx, double dy, double distance, double wavelength, int method) {
+            HoloJTransfer transfer = transferFunction(width, height, dx, dy, distance, wavelength, method);
 			hologram.doFFT();
-			HoloJProcessor chirp = new HoloJProcessor(width, height, dx, dy, distance, wavelength);//THIS returns a HOLOJPROCESSOR
-            hologram = multiply(chirp, hologram);
+			hologram.applyTransferFunction(transfer);
 			hologram.doInverseFFT();
 			
 			//HoloJProcessor propagated_ref = new HoloJProcessor(ref.realPixels, ref.complexPixels, width, height);
 			ref.doFFT();
-			ref = multiply(chirp, ref);
+			ref.applyTransferFunction(transfer);
 			ref.doInverseFFT();
-			propagated = HoloJUtils.divide(ref, hologram);
-			
-            return propagated;
+			// the quotient overwrites the propagated reference, which is not needed afterwards.
+            return HoloJUtils.divideInto(ref, hologram, ref);
     }
 	/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
     /**
@@ -617,11 +800,128 @@ public final class HoloJUtils {
         holoRec.doInverseFFT();
         refRec.doInverseFFT();
 
-        HoloJProcessor result = HoloJUtils.divide(holoRec,refRec);
-
-        return result;
+        // the quotient overwrites the hologram sideband, which is not needed afterwards.
+        return HoloJUtils.divideInto(holoRec,refRec,holoRec);
     }
     
+    /**
+     * Returns an HoloJProcessor containing reconstructed data from hologram and a prepared reference.
+     * Only the hologram is transformed; see HoloJReference.
+     *
+     * @param hologram                  hologram to be reconstructed.
+     * @param reference                 reference prepared with the reconstruction parameters.
+     * @return the reconstructed image.
+     */
+    public static HoloJProcessor reconstruct(HoloJProcessor hologram, HoloJReference reference) {
+        return reference.reconstruct(hologram);
+    }
+
+    /**
+     * Returns an HoloJProcessor containing reconstructed data of the region selected by roi only.
+     * Transforms are sized on the region instead of the whole hologram; see HoloJRoi.
+     *
+     * @param radius			radius of reconstructed frequency region.
+     * @param scaleFactor		scale factor of final reconstructed image.
+     * @param sideCenter		center of the sideband.
+     * @param hologram                  hologram to be reconstructed.
+     * @param reference                 hologram used as reference in void, or null.
+     * @param roi                       the selected region of the hologram.
+     * @param useButterworth            flag for using soft aperture.
+     * @return the reconstructed region.
+     */
+    public static HoloJProcessor reconstruct(int radius, int scaleFactor, Point sideCenter, HoloJProcessor hologram, HoloJProcessor reference, Roi roi, boolean useButterworth) {
+        return HoloJRoi.reconstruct(radius, scaleFactor, sideCenter, hologram, reference, roi, useButterworth);
+    }
+
+    /**
+     * Returns the region selected by roi of the propagated hologram, transforming a padded window
+     * around the region only; see HoloJRoi.
+     *
+     * @param hologram      the field to propagate, left untouched.
+     * @param roi           the selected region.
+     * @param dx            pixel size along X.
+     * @param dy            pixel size along Y.
+     * @param distance      propagation distance.
+     * @param wavelength    wavelength of the illumination.
+     * @return the propagated region.
+     */
+    public static HoloJProcessor propogatefunc(HoloJProcessor hologram, Roi roi, double dx, double dy, double distance, double wavelength) {
+        return HoloJRoi.propagate(hologram, roi, dx, dy, distance, wavelength);
+    }
+
+    /**
+     * Returns an HoloJFloatProcessor containing reconstructed data, using the single precision pipeline.
+     *
+     * @param radius			radius of reconstructed frequency region.
+     * @param scaleFactor		scale factor of final reconstructed image.
+     * @param sideCenter		center of the sideband.
+     * @param hologram                  hologram to be reconstructed.
+     * @param useButterworth            flag for using soft aperture.
+     * @return the reconstructed image.
+     */
+    public static HoloJFloatProcessor reconstruct(int radius, int scaleFactor, Point sideCenter, HoloJFloatProcessor hologram, boolean useButterworth) {
+        hologram.doFFT();
+        HoloJFloatProcessor holoRec = hologram.getSideband(sideCenter,radius,scaleFactor,useButterworth);
+        holoRec.doInverseFFT();
+        return holoRec;
+    }
+
+    /**
+     * Returns an HoloJFloatProcessor containing reconstructed data from hologram and reference, using the single precision pipeline.
+     *
+     * @param radius			radius of reconstructed frequency region.
+     * @param scaleFactor		scale factor of final reconstructed image.
+     * @param sideCenter		center of the sideband.
+     * @param hologram                  hologram to be reconstructed.
+     * @param reference                 hologram used as reference in void.
+     * @param useButterworth            flag for using soft aperture.
+     * @return the reconstructed image.
+     */
+    public static HoloJFloatProcessor reconstruct(int radius, int scaleFactor, Point sideCenter, HoloJFloatProcessor hologram, HoloJFloatProcessor reference, boolean useButterworth) {
+        HoloJFloatProcessor holoRec = reconstruct(radius, scaleFactor, sideCenter, hologram, useButterworth);
+        HoloJFloatProcessor refRec = reconstruct(radius, scaleFactor, sideCenter, reference, useButterworth);
+        holoRec.divide(refRec);
+        return holoRec;
+    }
+
+    /**
+     * Propagates the single precision field by distance, as propogatefunc does for HoloJProcessor.
+     * The hologram is modified and returned.
+     *
+     * @param hologram      the field to propagate.
+     * @param width         image width.
+     * @param height        image height.
+     * @param dx            pixel size along X.
+     * @param dy            pixel size along Y.
+     * @param distance      propagation distance.
+     * @param wavelength    wavelength of the illumination.
+     * @return the propagated field.
+     */
+    public static HoloJFloatProcessor propogatefunc(HoloJFloatProcessor hologram, int width, int height, double dx, double dy, double distance, double wavelength) {
+        hologram.doFFT();
+        hologram.applyTransferFunction(transferFunction(width, height, dx, dy, distance, wavelength, FRESNEL));
+        hologram.doInverseFFT();
+        return hologram;
+    }
+
+    /**
+     * Returns the transfer function of a propagation by distance with the selected method.
+     *
+     * @param width         image width.
+     * @param height        image height.
+     * @param dx            pixel size along X.
+     * @param dy            pixel size along Y.
+     * @param distance      propagation distance.
+     * @param wavelength    wavelength of the illumination.
+     * @param method        FRESNEL or ANGULAR_SPECTRUM.
+     * @return the transfer function, for centered spectra, shared through HoloJChirpCache.
+     */
+    public static HoloJTransfer transferFunction(int width, int height, double dx, double dy, double distance, double wavelength, int method) {
+        if ((method != FRESNEL) && (method != ANGULAR_SPECTRUM))
+            throw new IllegalArgumentException("transferFunction: unknown propagation method.");
+        return HoloJChirpCache.getTransfer(width, height, dx, dy, distance, wavelength, method);
+    }
+
     /**
      *  Calculates the cosine of pixels in source.
      *
@@ -0,0 +1,127 @@
+package holoj.vector;
+
+import holoj.HoloJKernels;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorShuffle;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Class HoloJVectorKernels implements HoloJKernels with the Vector API, using the widest vectors of the
+ * processor: 4 doubles with AVX2, 8 with AVX-512. It is compiled apart from the plugin, since it needs
+ * the incubating module:
+ *   javac --add-modules jdk.incubator.vector -cp (holoj classes) vector/HoloJVectorKernels.java
+ * and is only loaded, by HoloJKernels.get(), when the JVM runs with --add-modules jdk.incubator.vector.
+ * Only products and quotients are overridden: the JIT already vectorizes the scalar sums, differences and
+ * constant additions. Interleaved pixels are kept in place: each vector holds whole RE,CO pairs, and the
+ * real and imaginary parts are swapped or duplicated within pairs by lane shuffles. Every result is computed
+ * with the same operations, in the same order, as the scalar kernels, so results are identical.
+ *
+ * @author Brian Mitchell
+ * @version 1.0
+ */
+public final class HoloJVectorKernels extends HoloJKernels {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    // lane i takes lane i^1: RE,CO becomes CO,RE.
+    private static final VectorShuffle<Double> SWAP = VectorShuffle.fromOp(SPECIES, i -> i ^ 1);
+    // RE,CO becomes RE,RE and CO,CO.
+    private static final VectorShuffle<Double> REAL = VectorShuffle.fromOp(SPECIES, i -> i & ~1);
+    private static final VectorShuffle<Double> IMAG = VectorShuffle.fromOp(SPECIES, i -> i | 1);
+    // -1,+1,... and +1,-1,...: signs of the cross terms of products and quotients.
+    private static final DoubleVector PRODUCT_SIGNS = alternate(-1.0, 1.0);
+    private static final DoubleVector QUOTIENT_SIGNS = alternate(1.0, -1.0);
+
+    public HoloJVectorKernels() {
+        if (SPECIES.length() < 2)
+            throw new UnsupportedOperationException("HoloJVectorKernels: no SIMD registers.");
+    }
+
+    private static DoubleVector alternate(double even, double odd) {
+        double[] signs = new double[SPECIES.length()];
+        for (int i=0; i<signs.length; i++) signs[i] = ((i & 1) == 0) ? even : odd;
+        return DoubleVector.fromArray(SPECIES, signs, 0);
+    }
+
+    public String getName() {
+        return "vector "+SPECIES.vectorBitSize()+" bits";
+    }
+
+    public void multiply(double[] p1, double[] p2, double[] dest, int count) {
+        int length = count << 1;
+        int upper = SPECIES.loopBound(length);
+        int i = 0;
+        for (; i<upper; i+=SPECIES.length()) {
+            DoubleVector a = DoubleVector.fromArray(SPECIES, p1, i);
+            DoubleVector b = DoubleVector.fromArray(SPECIES, p2, i);
+            // (re1*re2, im1*re2) + (-im1*im2, re1*im2).
+            DoubleVector direct = a.mul(b.rearrange(REAL));
+            DoubleVector cross = a.rearrange(SWAP).mul(b.rearrange(IMAG)).mul(PRODUCT_SIGNS);
+            direct.add(cross).intoArray(dest, i);
+        }
+        for (; i<length; i+=2) {
+            double re1 = p1[i], im1 = p1[i+1], re2 = p2[i], im2 = p2[i+1];
+            dest[i] = re1*re2-im1*im2;
+            dest[i+1] = re1*im2+re2*im1;
+        }
+    }
+
+    public void divide(double[] p1, double[] p2, double[] dest, int count) {
+        int length = count << 1;
+        int upper = SPECIES.loopBound(length);
+        int i = 0;
+        for (; i<upper; i+=SPECIES.length()) {
+            DoubleVector a = DoubleVector.fromArray(SPECIES, p1, i);
+            DoubleVector b = DoubleVector.fromArray(SPECIES, p2, i);
+            DoubleVector squares = b.mul(b);
+            DoubleVector den = squares.add(squares.rearrange(SWAP));
+            // ((re1*re2, im1*re2) + (im1*im2, -re1*im2)) / den.
+            DoubleVector direct = a.mul(b.rearrange(REAL));
+            DoubleVector cross = a.rearrange(SWAP).mul(b.rearrange(IMAG)).mul(QUOTIENT_SIGNS);
+            direct.add(cross).div(den).intoArray(dest, i);
+        }
+        for (; i<length; i+=2) {
+            double re1 = p1[i], im1 = p1[i+1], re2 = p2[i], im2 = p2[i+1];
+            double den = re2*re2+im2*im2;
+            dest[i] = (re1*re2+im1*im2)/den;
+            dest[i+1] = (re2*im1-re1*im2)/den;
+        }
+    }
+
+    public void multiply(double[] re1, double[] im1, double[] re2, double[] im2, double[] reDest, double[] imDest, int count) {
+        int upper = SPECIES.loopBound(count);
+        int i = 0;
+        for (; i<upper; i+=SPECIES.length()) {
+            DoubleVector r1 = DoubleVector.fromArray(SPECIES, re1, i);
+            DoubleVector i1 = DoubleVector.fromArray(SPECIES, im1, i);
+            DoubleVector r2 = DoubleVector.fromArray(SPECIES, re2, i);
+            DoubleVector i2 = DoubleVector.fromArray(SPECIES, im2, i);
+            r1.mul(r2).sub(i1.mul(i2)).intoArray(reDest, i);
+            r1.mul(i2).add(r2.mul(i1)).intoArray(imDest, i);
+        }
+        for (; i<count; i++) {
+            double r1 = re1[i], i1 = im1[i], r2 = re2[i], i2 = im2[i];
+            reDest[i] = r1*r2-i1*i2;
+            imDest[i] = r1*i2+r2*i1;
+        }
+    }
+
+    public void divide(double[] re1, double[] im1, double[] re2, double[] im2, double[] reDest, double[] imDest, int count) {
+        int upper = SPECIES.loopBound(count);
+        int i = 0;
+        for (; i<upper; i+=SPECIES.length()) {
+            DoubleVector r1 = DoubleVector.fromArray(SPECIES, re1, i);
+            DoubleVector i1 = DoubleVector.fromArray(SPECIES, im1, i);
+            DoubleVector r2 = DoubleVector.fromArray(SPECIES, re2, i);
+            DoubleVector i2 = DoubleVector.fromArray(SPECIES, im2, i);
+            DoubleVector den = r2.mul(r2).add(i2.mul(i2));
+            r1.mul(r2).add(i1.mul(i2)).div(den).intoArray(reDest, i);
+            r2.mul(i1).sub(r1.mul(i2)).div(den).intoArray(imDest, i);
+        }
+        for (; i<count; i++) {
+            double r1 = re1[i], i1 = im1[i], r2 = re2[i], i2 = im2[i];
+            double den = r2*r2+i2*i2;
+            reDest[i] = (r1*r2+i1*i2)/den;
+            imDest[i] = (r2*i1-r1*i2)/den;
+        }
+    }
+}